@@ -0,0 +1,192 @@
+package Main;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The results of analysis: the type of each literal, group and binary
+ * expression, the variable of each field, declaration and access, and the
+ * function of each method and function expression. Results are keyed by the
+ * identity of the node rather than stored on it, so the nodes are never
+ * modified and a node shared by several expressions (see {@link AstInterner})
+ * has one result wherever it appears, which only holds for nodes whose result
+ * does not depend on their scope.
+ *
+ * The {@link Analyzer} and {@link Generator} keep their results on the nodes
+ * unless given an analysis. An analysis is not thread safe, so the parallel
+ * analyzer gives each method body its own and merges them afterwards.
+ */
+public final class Analysis {
+
+    /**
+     * The results stored on the nodes themselves, which is used by passes
+     * that are not given an analysis.
+     */
+    static final Analysis NODES = new Analysis(null);
+
+    private final Map<Ast, Object> results;
+    private final Map<Ast, Environment.Type[]> named;
+
+    public Analysis() {
+        this(new IdentityHashMap<>());
+    }
+
+    private Analysis(Map<Ast, Object> results) {
+        this.results = results;
+        this.named = results == null ? null : new IdentityHashMap<>();
+    }
+
+    /**
+     * Returns the number of nodes with a result.
+     */
+    public int size() {
+        return results == null ? 0 : results.size();
+    }
+
+    /**
+     * Returns the type of an expression, which for access and function
+     * expressions is that of their variable or function.
+     */
+    public Environment.Type getType(Ast.Expr ast) {
+        if (results == null) {
+            return ast.getType();
+        } else if (ast instanceof Ast.Expr.Access) {
+            return getVariable(ast).getType();
+        } else if (ast instanceof Ast.Expr.Function) {
+            return getFunction(ast).getReturnType();
+        }
+        return (Environment.Type) get(ast, "type");
+    }
+
+    void setType(Ast.Expr ast, Environment.Type type) {
+        if (results != null) {
+            results.put(ast, type);
+        } else if (ast instanceof Ast.Expr.Literal) {
+            ((Ast.Expr.Literal) ast).setType(type);
+        } else if (ast instanceof Ast.Expr.Group) {
+            ((Ast.Expr.Group) ast).setType(type);
+        } else if (ast instanceof Ast.Expr.Binary) {
+            ((Ast.Expr.Binary) ast).setType(type);
+        } else {
+            throw new IllegalArgumentException("An " + ast.getClass().getSimpleName() + " has no type of its own.");
+        }
+    }
+
+    /**
+     * Returns the variable of a field, declaration or access expression.
+     */
+    public Environment.Variable getVariable(Ast ast) {
+        if (results != null) {
+            return (Environment.Variable) get(ast, "variable");
+        } else if (ast instanceof Ast.Field) {
+            return ((Ast.Field) ast).getVariable();
+        } else if (ast instanceof Ast.Stmt.Declaration) {
+            return ((Ast.Stmt.Declaration) ast).getVariable();
+        } else if (ast instanceof Ast.Expr.Access) {
+            return ((Ast.Expr.Access) ast).getVariable();
+        }
+        throw new IllegalArgumentException("An " + ast.getClass().getSimpleName() + " has no variable.");
+    }
+
+    void setVariable(Ast ast, Environment.Variable variable) {
+        if (results != null) {
+            results.put(ast, variable);
+        } else if (ast instanceof Ast.Field) {
+            ((Ast.Field) ast).setVariable(variable);
+        } else if (ast instanceof Ast.Stmt.Declaration) {
+            ((Ast.Stmt.Declaration) ast).setVariable(variable);
+        } else if (ast instanceof Ast.Expr.Access) {
+            ((Ast.Expr.Access) ast).setVariable(variable);
+        } else {
+            throw new IllegalArgumentException("An " + ast.getClass().getSimpleName() + " has no variable.");
+        }
+    }
+
+    /**
+     * Returns the function of a method or function expression.
+     */
+    public Environment.Function getFunction(Ast ast) {
+        if (results != null) {
+            return (Environment.Function) get(ast, "function");
+        } else if (ast instanceof Ast.Method) {
+            return ((Ast.Method) ast).getFunction();
+        } else if (ast instanceof Ast.Expr.Function) {
+            return ((Ast.Expr.Function) ast).getFunction();
+        }
+        throw new IllegalArgumentException("An " + ast.getClass().getSimpleName() + " has no function.");
+    }
+
+    void setFunction(Ast ast, Environment.Function function) {
+        if (results != null) {
+            results.put(ast, function);
+        } else if (ast instanceof Ast.Method) {
+            ((Ast.Method) ast).setFunction(function);
+        } else if (ast instanceof Ast.Expr.Function) {
+            ((Ast.Expr.Function) ast).setFunction(function);
+        } else {
+            throw new IllegalArgumentException("An " + ast.getClass().getSimpleName() + " has no function.");
+        }
+    }
+
+    /**
+     * Returns the types named by a field, method or declaration (the
+     * parameter types and then the return type, for methods) as far as they
+     * have been resolved, or null if none have been. The {@link Analyzer}
+     * resolves each name the first time the node is analyzed, so analyzing it
+     * again, such as in {@link IncrementalAnalyzer}, does not look it up.
+     */
+    Environment.Type[] getNamedTypes(Ast ast) {
+        if (named != null) {
+            return named.get(ast);
+        } else if (ast instanceof Ast.Field) {
+            return ((Ast.Field) ast).types;
+        } else if (ast instanceof Ast.Method) {
+            return ((Ast.Method) ast).types;
+        } else if (ast instanceof Ast.Stmt.Declaration) {
+            return ((Ast.Stmt.Declaration) ast).types;
+        }
+        throw new IllegalArgumentException("An " + ast.getClass().getSimpleName() + " names no types.");
+    }
+
+    void setNamedTypes(Ast ast, Environment.Type[] types) {
+        if (named != null) {
+            named.put(ast, types);
+        } else if (ast instanceof Ast.Field) {
+            ((Ast.Field) ast).types = types;
+        } else if (ast instanceof Ast.Method) {
+            ((Ast.Method) ast).types = types;
+        } else if (ast instanceof Ast.Stmt.Declaration) {
+            ((Ast.Stmt.Declaration) ast).types = types;
+        } else {
+            throw new IllegalArgumentException("An " + ast.getClass().getSimpleName() + " names no types.");
+        }
+    }
+
+    /**
+     * Returns a new analysis for results computed alongside this one, such
+     * as those of a method body analyzed on another thread, or this analysis
+     * if results are stored on the nodes.
+     */
+    Analysis fork() {
+        return results == null ? this : new Analysis();
+    }
+
+    /**
+     * Adds the results of an analysis returned by {@link #fork()}.
+     */
+    void merge(Analysis analysis) {
+        if (analysis != this) {
+            results.putAll(analysis.results);
+            named.putAll(analysis.named);
+        }
+    }
+
+    private Object get(Ast ast, String name) {
+        Object result = results.get(ast);
+        if (result == null) {
+            throw new IllegalStateException(name + " is uninitialized");
+        }
+        return result;
+    }
+
+}
@@ -2,10 +2,14 @@ package Main;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 /**
@@ -16,10 +20,43 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
     public Scope scope;
     private Ast.Method method;
+    private final Analysis analysis;
+
+    /**
+     * The names of the variables and the name/arity of the functions looked
+     * up in a scope, whether or not they are found, if they are being
+     * recorded for {@link IncrementalAnalyzer}.
+     */
+    Set<String> references = null;
 
     public Analyzer(Scope parent) {
+        this(parent, true);
+    }
+
+    /**
+     * Creates an analyzer which records its results in the analysis instead
+     * of on the nodes, so the nodes are left unchanged and may be shared, see
+     * {@link AstInterner}.
+     */
+    public Analyzer(Scope parent, Analysis analysis) {
+        this(parent, true, analysis);
+    }
+
+    Analyzer(Scope parent, boolean builtins) {
+        this(parent, builtins, Analysis.NODES);
+    }
+
+    /**
+     * Creates an analyzer in a new child scope of the parent, which only
+     * defines the built-in functions if requested, since analyzers of method
+     * bodies already see them through the parent.
+     */
+    Analyzer(Scope parent, boolean builtins, Analysis analysis) {
+        this.analysis = analysis;
         scope = new Scope(parent);
-        scope.defineFunction("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL);
+        if (builtins) {
+            scope.defineFunction("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL);
+        }
     }
 
     public Scope getScope() {
@@ -36,12 +73,92 @@ public final class Analyzer implements Ast.Visitor<Void> {
         {
             visit(ast.getMethods().get(i));
         }
+        requireMain();
+        return null;
+    }
+
+    /**
+     * Analyzes the source on the common pool, see {@link
+     * #analyzeParallel(Ast.Source, ForkJoinPool)}.
+     */
+    public void analyzeParallel(Ast.Source ast) {
+        analyzeParallel(ast, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Analyzes the source like {@link #visit(Ast.Source)}, but analyzes the
+     * bodies of methods in parallel.
+     *
+     * Fields and then the signatures of all methods are defined first, so any
+     * body can refer to any of them. Each body is then analyzed on the pool by
+     * its own analyzer, in a child scope of this analyzer's scope, so names
+     * declared in one body are never visible in another. If this analyzer
+     * records into an {@link Analysis}, each body records into its own, which
+     * are merged in source order once the bodies are done. If any bodies
+     * fail, the exception of the first in source order is thrown with those
+     * of the rest suppressed, so the result does not depend on scheduling.
+     */
+    public void analyzeParallel(Ast.Source ast, ForkJoinPool pool) {
+        for (int i = 0; i < ast.getFields().size(); i++)
+        {
+            visit(ast.getFields().get(i));
+        }
+        for (int i = 0; i < ast.getMethods().size(); i++)
+        {
+            defineMethod(ast.getMethods().get(i));
+        }
+        Scope global = scope;
+        List<ForkJoinTask<RuntimeException>> tasks = new ArrayList<>();
+        List<Analysis> bodies = new ArrayList<>();
+        for (Ast.Method method : ast.getMethods())
+        {
+            //The returns of the body are checked against the function of its method
+            Analysis body = analysis.fork();
+            body.setFunction(method, analysis.getFunction(method));
+            bodies.add(body);
+            tasks.add(pool.submit(() -> {
+                //Returned rather than thrown, since join() may wrap exceptions from other threads
+                try
+                {
+                    new Analyzer(global, false, body).analyzeBody(method);
+                    return null;
+                }
+                catch (RuntimeException e)
+                {
+                    return e;
+                }
+            }));
+        }
+        RuntimeException exception = null;
+        for (int i = 0; i < tasks.size(); i++)
+        {
+            RuntimeException e = tasks.get(i).join();
+            analysis.merge(bodies.get(i));
+            if (e != null && exception == null)
+            {
+                exception = e;
+            }
+            else if (e != null)
+            {
+                exception.addSuppressed(e);
+            }
+        }
+        if (exception != null)
+        {
+            throw exception;
+        }
+        requireMain();
+    }
+
+    /**
+     * Checks that {@code main/0} is defined and returns an Integer.
+     */
+    void requireMain() {
         scope.lookupFunction("main", 0);
         if (scope.lookupFunction("main", 0).getReturnType() != Environment.Type.INTEGER)
         {
             throw new RuntimeException("main/0 function must have an integer return type");
         }
-        return null;
     }
 
     @Override
@@ -49,32 +166,50 @@ public final class Analyzer implements Ast.Visitor<Void> {
         if (ast.getValue().isPresent())
         {
             visit(ast.getValue().get());
-            requireAssignable(ast.getValue().get().getType(), Environment.getType(ast.getTypeName()));
+            requireAssignable(analysis.getType(ast.getValue().get()), getType(ast, 0, 1, ast.getTypeName()));
         }
-        scope.defineVariable(ast.getName(), ast.getName(), Environment.getType(ast.getTypeName()), Environment.NIL);
-        ast.setVariable(scope.lookupVariable(ast.getName()));
+        scope.defineVariable(ast.getName(), ast.getName(), getType(ast, 0, 1, ast.getTypeName()), Environment.NIL);
+        analysis.setVariable(ast, scope.lookupVariable(ast.getName()));
 
         return null;
     }
 
     @Override
     public Void visit(Ast.Method ast) {
+        defineMethod(ast);
+        analyzeBody(ast);
+        return null;
+    }
+
+    /**
+     * Defines the function of a method from its signature.
+     */
+    void defineMethod(Ast.Method ast) {
         // getting parameter types
+        int count = ast.getParameterTypeNames().size();
         List<Environment.Type> parameterTypes = new ArrayList<>();
-        for (int i = 0; i < ast.getParameterTypeNames().size(); i++)
+        for (int i = 0; i < count; i++)
         {
-            parameterTypes.add(Environment.getType(ast.getParameterTypeNames().get(i)));
+            parameterTypes.add(getType(ast, i, count + 1, ast.getParameterTypeNames().get(i)));
         }
         Environment.Type returnType;
         if (ast.getReturnTypeName().isPresent())
         {
-            returnType = Environment.getType(ast.getReturnTypeName().get());
+            returnType = getType(ast, count, count + 1, ast.getReturnTypeName().get());
         }
         else
             returnType = Environment.Type.NIL;
 
         scope.defineFunction(ast.getName(), ast.getName(), parameterTypes, returnType, args->Environment.NIL);
-        ast.setFunction(scope.lookupFunction(ast.getName(), ast.getParameters().size()));
+        analysis.setFunction(ast, scope.lookupFunction(ast.getName(), ast.getParameters().size()));
+    }
+
+    /**
+     * Analyzes the body of a method which has already been defined, as the
+     * method of this analyzer.
+     */
+    void analyzeBody(Ast.Method ast) {
+        method = ast;
         for (int i = 0; i < ast.getStatements().size(); i++)
         {
             scope = new Scope(scope);
@@ -85,8 +220,6 @@ public final class Analyzer implements Ast.Visitor<Void> {
             }
             visit(ast.getStatements().get(i));
         }
-        method = ast;
-        return null;
     }
 
     @Override
@@ -107,15 +240,15 @@ public final class Analyzer implements Ast.Visitor<Void> {
         }
         else if (ast.getTypeName().isPresent())
         {
-            type = Environment.getType(ast.getTypeName().get());
+            type = getType(ast, 0, 1, ast.getTypeName().get());
         }
         else
         {
             visit(ast.getValue().get());
-            type = ast.getValue().get().getType();
+            type = analysis.getType(ast.getValue().get());
         }
         scope.defineVariable(ast.getName(), ast.getName(), type, Environment.NIL);
-        ast.setVariable(scope.lookupVariable(ast.getName()));
+        analysis.setVariable(ast, scope.lookupVariable(ast.getName()));
         return null;
     }
 
@@ -127,14 +260,14 @@ public final class Analyzer implements Ast.Visitor<Void> {
         }
         visit(ast.getReceiver());
         visit(ast.getValue());
-        requireAssignable(ast.getReceiver().getType(), ast.getValue().getType());
+        requireAssignable(analysis.getType(ast.getReceiver()), analysis.getType(ast.getValue()));
         return null;
     }
 
     @Override
     public Void visit(Ast.Stmt.If ast) {
         visit(ast.getCondition());
-        if (ast.getCondition().getType() != Environment.Type.BOOLEAN)
+        if (analysis.getType(ast.getCondition()) != Environment.Type.BOOLEAN)
             throw new RuntimeException("Condition must be of type BOOLEAN");
         if (ast.getThenStatements().isEmpty())
             throw new RuntimeException("Then statements cannot be empty");
@@ -155,7 +288,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Stmt.For ast) {
-        if (ast.getValue().getType() != Environment.Type.INTEGER_ITERABLE)
+        if (analysis.getType(ast.getValue()) != Environment.Type.INTEGER_ITERABLE)
         {
             throw new RuntimeException("Value must be of type INTEGER_ITERABLE");
         }
@@ -174,7 +307,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Stmt.While ast) {
-        if (ast.getCondition().getType() != Environment.Type.BOOLEAN)
+        if (analysis.getType(ast.getCondition()) != Environment.Type.BOOLEAN)
             throw new RuntimeException("Condition must be of type BOOLEAN");
         for (int i = 0; i < ast.getStatements().size(); i++)
         {
@@ -184,9 +317,19 @@ public final class Analyzer implements Ast.Visitor<Void> {
         return null;
     }
 
+    /**
+     * Skips a statement which could not be parsed, which the parser has
+     * already reported, so the rest of the method is still analyzed.
+     */
+    @Override
+    public Void visit(Ast.Stmt.Error ast) {
+        return null;
+    }
+
     @Override
     public Void visit(Ast.Stmt.Return ast) {
-        requireAssignable(ast.getValue().getType(), method.getFunction().getReturnType());
+        visit(ast.getValue());
+        requireAssignable(analysis.getType(ast.getValue()), analysis.getFunction(method).getReturnType());
         return null;
     }
 
@@ -194,19 +337,19 @@ public final class Analyzer implements Ast.Visitor<Void> {
     public Void visit(Ast.Expr.Literal ast) {
         if (ast.getLiteral() == null)
         {
-            ast.setType(Environment.Type.NIL);
+            analysis.setType(ast, Environment.Type.NIL);
         }
         else if (ast.getLiteral() instanceof Boolean)
         {
-            ast.setType(Environment.Type.BOOLEAN);
+            analysis.setType(ast, Environment.Type.BOOLEAN);
         }
         else if (ast.getLiteral() instanceof Character)
         {
-            ast.setType(Environment.Type.CHARACTER);
+            analysis.setType(ast, Environment.Type.CHARACTER);
         }
         else if (ast.getLiteral() instanceof String)
         {
-            ast.setType(Environment.Type.STRING);
+            analysis.setType(ast, Environment.Type.STRING);
         }
         else if (ast.getLiteral() instanceof BigInteger)
         {
@@ -215,7 +358,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
                 throw new RuntimeException("Integer exceeds 32 bits.");
             }
             else
-                ast.setType(Environment.Type.INTEGER);
+                analysis.setType(ast, Environment.Type.INTEGER);
         }
         else if (ast.getLiteral() instanceof BigDecimal)
         {
@@ -225,33 +368,82 @@ public final class Analyzer implements Ast.Visitor<Void> {
                 throw new RuntimeException("Decimal Exceeds double limit.");
             }
             else
-                ast.setType(Environment.Type.DECIMAL);
+                analysis.setType(ast, Environment.Type.DECIMAL);
         }
         return null;
     }
 
     @Override
     public Void visit(Ast.Expr.Group ast) {
-        //is not an instance of a binary expression
-        if (!(ast.getExpression() instanceof Ast.Expr.Binary))
-        {
-            throw new RuntimeException("Grouped Expression is not binary");
-        }
-        else
-            visit(ast.getExpression());
+        analyzeNested(ast);
         return null;
     }
 
     @Override
     public Void visit(Ast.Expr.Binary ast) {
-        visit(ast.getLeft());
-        visit(ast.getRight());
+        analyzeNested(ast);
+        return null;
+    }
+
+    /**
+     * Analyzes nested groups and binary expressions with an explicit stack,
+     * so deeply nested expressions don't overflow the stack. Each group or
+     * binary expression is pushed back once its operands are pushed and is
+     * finished after they have been analyzed. Other expressions are visited
+     * as usual.
+     */
+    private void analyzeNested(Ast.Expr ast) {
+        ArrayDeque<Ast.Expr> stack = new ArrayDeque<>();
+        ArrayDeque<Boolean> expanded = new ArrayDeque<>();
+        stack.push(ast);
+        expanded.push(false);
+        while (!stack.isEmpty())
+        {
+            Ast.Expr expr = stack.pop();
+            if (expanded.pop())
+            {
+                if (expr instanceof Ast.Expr.Group)
+                    analysis.setType(expr, analysis.getType(((Ast.Expr.Group) expr).getExpression()));
+                else
+                    analyzeBinary((Ast.Expr.Binary) expr);
+            }
+            else if (expr instanceof Ast.Expr.Group)
+            {
+                //is not an instance of a binary expression
+                if (!(((Ast.Expr.Group) expr).getExpression() instanceof Ast.Expr.Binary))
+                {
+                    throw new RuntimeException("Grouped Expression is not binary");
+                }
+                stack.push(expr);
+                expanded.push(true);
+                stack.push(((Ast.Expr.Group) expr).getExpression());
+                expanded.push(false);
+            }
+            else if (expr instanceof Ast.Expr.Binary)
+            {
+                stack.push(expr);
+                expanded.push(true);
+                stack.push(((Ast.Expr.Binary) expr).getRight());
+                expanded.push(false);
+                stack.push(((Ast.Expr.Binary) expr).getLeft());
+                expanded.push(false);
+            }
+            else
+                visit(expr);
+        }
+    }
+
+    /**
+     * Checks the operands of a binary expression and sets its type, once
+     * both have been analyzed.
+     */
+    private void analyzeBinary(Ast.Expr.Binary ast) {
         switch (ast.getOperator())
         {
             case "AND":
             case "OR":
-                if (ast.getLeft().getType() == Environment.Type.BOOLEAN && ast.getRight().getType() == Environment.Type.BOOLEAN)
-                    ast.setType(Environment.Type.BOOLEAN);
+                if (analysis.getType(ast.getLeft()) == Environment.Type.BOOLEAN && analysis.getType(ast.getRight()) == Environment.Type.BOOLEAN)
+                    analysis.setType(ast, Environment.Type.BOOLEAN);
                 else
                     throw new RuntimeException("Both expressions must be Booleans.");
                 break;
@@ -261,31 +453,30 @@ public final class Analyzer implements Ast.Visitor<Void> {
             case ">=":
             case "==":
             case "!=":
-                if (ast.getLeft().getType() == ast.getRight().getType() && ast.getLeft().getType() == Environment.Type.COMPARABLE )
-                    ast.setType(Environment.Type.BOOLEAN);
+                if (analysis.getType(ast.getLeft()) == analysis.getType(ast.getRight()) && analysis.getType(ast.getLeft()) == Environment.Type.COMPARABLE )
+                    analysis.setType(ast, Environment.Type.BOOLEAN);
                 else
                     throw new RuntimeException("Expressions are not comparable");
                 break;
             case "+":
-                if (ast.getLeft().getType() == Environment.Type.STRING || ast.getRight().getType() == Environment.Type.STRING)
-                    ast.setType(Environment.Type.STRING);
-                else if (ast.getLeft().getType() == Environment.Type.INTEGER && ast.getRight().getType() == Environment.Type.INTEGER)
-                    ast.setType(Environment.Type.INTEGER);
-                else if (ast.getLeft().getType() == Environment.Type.DECIMAL && ast.getRight().getType() == Environment.Type.DECIMAL)
-                    ast.setType(Environment.Type.DECIMAL);
+                if (analysis.getType(ast.getLeft()) == Environment.Type.STRING || analysis.getType(ast.getRight()) == Environment.Type.STRING)
+                    analysis.setType(ast, Environment.Type.STRING);
+                else if (analysis.getType(ast.getLeft()) == Environment.Type.INTEGER && analysis.getType(ast.getRight()) == Environment.Type.INTEGER)
+                    analysis.setType(ast, Environment.Type.INTEGER);
+                else if (analysis.getType(ast.getLeft()) == Environment.Type.DECIMAL && analysis.getType(ast.getRight()) == Environment.Type.DECIMAL)
+                    analysis.setType(ast, Environment.Type.DECIMAL);
                 else
                     throw new RuntimeException("Expressions cannot be added");
                 break;
             case "-":
             case "*":
             case "/":
-                if (ast.getLeft().getType() == Environment.Type.INTEGER && ast.getRight().getType() == Environment.Type.INTEGER)
-                    ast.setType(Environment.Type.INTEGER);
-                else if (ast.getLeft().getType() == Environment.Type.DECIMAL && ast.getRight().getType() == Environment.Type.DECIMAL)
-                    ast.setType(Environment.Type.DECIMAL);
+                if (analysis.getType(ast.getLeft()) == Environment.Type.INTEGER && analysis.getType(ast.getRight()) == Environment.Type.INTEGER)
+                    analysis.setType(ast, Environment.Type.INTEGER);
+                else if (analysis.getType(ast.getLeft()) == Environment.Type.DECIMAL && analysis.getType(ast.getRight()) == Environment.Type.DECIMAL)
+                    analysis.setType(ast, Environment.Type.DECIMAL);
                 break;
         }
-        return null;
     }
 
     @Override
@@ -293,10 +484,13 @@ public final class Analyzer implements Ast.Visitor<Void> {
         if (ast.getReceiver().isPresent())
         {
             visit(ast.getReceiver().get());
-            ast.setVariable(ast.getReceiver().get().getType().getField(ast.getName()));
+            analysis.setVariable(ast, analysis.getType(ast.getReceiver().get()).getField(ast.getName()));
         }
         else
-            ast.setVariable(scope.lookupVariable(ast.getName()));
+        {
+            record(ast.getName());
+            analysis.setVariable(ast, scope.lookupVariable(ast.getName()));
+        }
         return null;
     }
 
@@ -305,10 +499,13 @@ public final class Analyzer implements Ast.Visitor<Void> {
         if (ast.getReceiver().isPresent())
         {
             visit(ast.getReceiver().get());
-            ast.setFunction(ast.getReceiver().get().getType().getMethod(ast.getName(),ast.getArguments().size()));
+            analysis.setFunction(ast, analysis.getType(ast.getReceiver().get()).getMethod(ast.getName(),ast.getArguments().size()));
         }
         else
-            ast.setFunction(scope.lookupFunction(ast.getName(), ast.getArguments().size()));
+        {
+            record(ast.getName() + "/" + ast.getArguments().size());
+            analysis.setFunction(ast, scope.lookupFunction(ast.getName(), ast.getArguments().size()));
+        }
         //visit arguments
         if (ast.getArguments().size() > 0)
         {
@@ -316,7 +513,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
             {
                 visit(ast.getArguments().get(i));
                 // Possibly switched up type and target check on this
-                Environment.Type type = ast.getArguments().get(i).getType();
+                Environment.Type type = analysis.getType(ast.getArguments().get(i));
                 Environment.Type target = scope.lookupFunction(ast.getName(), ast.getArguments().size()).getParameterTypes().get(i);
                 requireAssignable(target, type);
             }
@@ -324,21 +521,32 @@ public final class Analyzer implements Ast.Visitor<Void> {
         return  null;
     }
 
-    public static void requireAssignable(Environment.Type target, Environment.Type type) {
-        if (target == type)
-            return;
-        else if (target == Environment.Type.ANY)
-            return;
-        else if (target == Environment.Type.COMPARABLE)
-        {
-            if (type == Environment.Type.INTEGER || type == Environment.Type.DECIMAL || type == Environment.Type.CHARACTER || type == Environment.Type.STRING)
-                return;
-            else
-                throw new RuntimeException("Not assignable");
+    /**
+     * Returns the type named by a field, method or declaration, which names
+     * the given number of types, resolving the name the first time the node
+     * is analyzed, see {@link Analysis#getNamedTypes(Ast)}.
+     */
+    private Environment.Type getType(Ast ast, int index, int count, String name) {
+        Environment.Type[] types = analysis.getNamedTypes(ast);
+        if (types == null || types.length != count) {
+            types = new Environment.Type[count];
+            analysis.setNamedTypes(ast, types);
         }
-        else
-            throw new RuntimeException("Not assignable");
+        if (types[index] == null) {
+            types[index] = Environment.getType(name);
+        }
+        return types[index];
+    }
 
+    private void record(String reference) {
+        if (references != null) {
+            references.add(reference);
+        }
+    }
+
+    public static void requireAssignable(Environment.Type target, Environment.Type type) {
+        if (!Environment.isAssignable(target, type))
+            throw new RuntimeException("Not assignable");
     }
 
 }
@@ -1,6 +1,9 @@
 package Main;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -11,11 +14,24 @@ import java.util.Optional;
  */
 public abstract class Ast {
 
+    /**
+     * Calls the visit method of the visitor for the class of this node, so
+     * {@link Visitor#visit(Ast)} does not need to check each class in turn.
+     */
+    public abstract <T> T accept(Visitor<T> visitor);
+
     public static final class Source extends Ast {
 
         private final List<Field> fields;
         private final List<Method> methods;
 
+        /**
+         * The index of the first token of each field and then method, followed
+         * by the index just past the last, recorded by the parser for {@link
+         * Parser#reparse(Source, List, List, Edit)}, or null if unknown.
+         */
+        int[] starts = null;
+
         public Source(List<Field> fields, List<Method> methods) {
             this.fields = fields;
             this.methods = methods;
@@ -29,6 +45,11 @@ public abstract class Ast {
             return methods;
         }
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Source &&
@@ -53,6 +74,9 @@ public abstract class Ast {
         private final Optional<Expr> value;
         private Environment.Variable variable = null;
 
+        //The type named by this field once resolved, see Analysis.getNamedTypes(Ast)
+        Environment.Type[] types = null;
+
         public Field(String name, Optional<Expr> value) {
             this(name, "Any", value);
         }
@@ -86,6 +110,11 @@ public abstract class Ast {
             this.variable = variable;
         }
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Field &&
@@ -116,6 +145,9 @@ public abstract class Ast {
         private final List<Stmt> statements;
         private Environment.Function function = null;
 
+        //The parameter types and then the return type named by this method once resolved
+        Environment.Type[] types = null;
+
         public Method(String name, List<String> parameters, List<Stmt> statements) {
             this(name, parameters, new ArrayList<>(), Optional.of("Any"), statements);
             for (int i = 0; i < parameters.size(); i++) {
@@ -162,6 +194,11 @@ public abstract class Ast {
             this.function = function;
         }
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Method &&
@@ -201,6 +238,11 @@ public abstract class Ast {
                 return expression;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Expression &&
@@ -223,6 +265,9 @@ public abstract class Ast {
             private final Optional<Expr> value;
             private Environment.Variable variable;
 
+            //The type named by this declaration once resolved
+            Environment.Type[] types = null;
+
             public Declaration(String name, Optional<Expr> value) {
                 this(name, Optional.empty(), value);
             }
@@ -256,6 +301,11 @@ public abstract class Ast {
                 this.variable = variable;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Declaration &&
@@ -295,6 +345,11 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Assignment &&
@@ -337,6 +392,11 @@ public abstract class Ast {
                 return elseStatements;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof If &&
@@ -380,6 +440,11 @@ public abstract class Ast {
                 return statements;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof For &&
@@ -417,6 +482,11 @@ public abstract class Ast {
                 return statements;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof While &&
@@ -446,6 +516,11 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Return &&
@@ -461,12 +536,118 @@ public abstract class Ast {
 
         }
 
+        /**
+         * A statement which could not be parsed, produced in place of the
+         * statement when parsing with {@link Parser#parseSource(List)}.
+         */
+        public static final class Error extends Stmt {
+
+            private final String message;
+            private final int index;
+
+            public Error(String message, int index) {
+                this.message = message;
+                this.index = index;
+            }
+
+            public String getMessage() {
+                return message;
+            }
+
+            public int getIndex() {
+                return index;
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                return obj instanceof Error &&
+                        message.equals(((Error) obj).message) &&
+                        index == ((Error) obj).index;
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hash(message, index);
+            }
+
+            @Override
+            public String toString() {
+                return "Ast.Stmt.Error{" +
+                        "message='" + message + '\'' +
+                        ", index=" + index +
+                        '}';
+            }
+
+        }
+
     }
 
     public static abstract class Expr extends Ast {
 
         public abstract Environment.Type getType();
 
+        /**
+         * Returns a 64-bit hash of the structure of this expression (the class,
+         * names, operators and literals of each node), which ignores the results
+         * of analysis. The hash is not cached, so it costs no space on each
+         * node; the children are hashed before their parent with an explicit
+         * stack, so deeply nested expressions don't overflow the stack.
+         */
+        public final long getStructuralHash() {
+            ArrayDeque<Expr> stack = new ArrayDeque<>();
+            ArrayDeque<Boolean> expanded = new ArrayDeque<>();
+            ArrayDeque<Long> hashes = new ArrayDeque<>();
+            stack.push(this);
+            expanded.push(false);
+            while (!stack.isEmpty()) {
+                Expr expr = stack.pop();
+                List<Expr> children = expr.getChildren();
+                if (expanded.pop()) {
+                    //The first child was pushed first, so it is hashed last and is on top
+                    long[] operands = new long[children.size()];
+                    for (int i = 0; i < operands.length; i++) {
+                        operands[i] = hashes.pop();
+                    }
+                    hashes.push(expr.hash(operands));
+                } else {
+                    stack.push(expr);
+                    expanded.push(true);
+                    for (Expr child : children) {
+                        stack.push(child);
+                        expanded.push(false);
+                    }
+                }
+            }
+            return hashes.pop();
+        }
+
+        /**
+         * Returns the child expressions of this expression in order.
+         */
+        abstract List<Expr> getChildren();
+
+        /**
+         * Returns the structural hash of this expression given those of its
+         * children, see {@link #getChildren()}.
+         */
+        abstract long hash(long[] children);
+
+        @Override
+        public final int hashCode() {
+            long hash = getStructuralHash();
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        private static long mix(long hash, long value) {
+            hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+            return hash ^ (hash >>> 29);
+        }
+
         public static final class Literal extends Expr {
 
             private final Object literal;
@@ -492,6 +673,21 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            @Override
+            List<Expr> getChildren() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            long hash(long[] children) {
+                return mix(1, Objects.hashCode(literal));
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Literal &&
@@ -533,6 +729,22 @@ public abstract class Ast {
             public void setType(Environment.Type type) {
                 this.type = type;
             }
+
+            @Override
+            List<Expr> getChildren() {
+                return Collections.singletonList(expression);
+            }
+
+            @Override
+            long hash(long[] children) {
+                return mix(2, children[0]);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Group &&
@@ -587,6 +799,21 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            @Override
+            List<Expr> getChildren() {
+                return Arrays.asList(left, right);
+            }
+
+            @Override
+            long hash(long[] children) {
+                return mix(mix(mix(3, operator.hashCode()), children[0]), children[1]);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Binary &&
@@ -643,6 +870,21 @@ public abstract class Ast {
                 return getVariable().getType();
             }
 
+            @Override
+            List<Expr> getChildren() {
+                return receiver.map(Collections::singletonList).orElse(Collections.emptyList());
+            }
+
+            @Override
+            long hash(long[] children) {
+                return mix(mix(4, receiver.isPresent() ? children[0] : 0), name.hashCode());
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Access &&
@@ -703,6 +945,29 @@ public abstract class Ast {
                 return getFunction().getReturnType();
             }
 
+            @Override
+            List<Expr> getChildren() {
+                List<Expr> children = new ArrayList<>(arguments.size() + 1);
+                receiver.ifPresent(children::add);
+                children.addAll(arguments);
+                return children;
+            }
+
+            @Override
+            long hash(long[] children) {
+                int first = receiver.isPresent() ? 1 : 0;
+                long hash = mix(mix(5, first == 1 ? children[0] : 0), name.hashCode());
+                for (int i = first; i < children.length; i++) {
+                    hash = mix(hash, children[i]);
+                }
+                return hash;
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Function &&
@@ -729,39 +994,7 @@ public abstract class Ast {
     public interface Visitor<T> {
 
         default T visit(Ast ast) {
-            if (ast instanceof Source) {
-                return visit((Source) ast);
-            } else if (ast instanceof Field) {
-                return visit((Field) ast);
-            } else if (ast instanceof Method) {
-                return visit((Method) ast);
-            } else if (ast instanceof Stmt.Expression) {
-                return visit((Stmt.Expression) ast);
-            } else if (ast instanceof Stmt.Declaration) {
-                return visit((Stmt.Declaration) ast);
-            } else if (ast instanceof Stmt.Assignment) {
-                return visit((Stmt.Assignment) ast);
-            } else if (ast instanceof Stmt.If) {
-                return visit((Stmt.If) ast);
-            } else if (ast instanceof Stmt.For) {
-                return visit((Stmt.For) ast);
-            } else if (ast instanceof Stmt.While) {
-                return visit((Stmt.While) ast);
-            } else if (ast instanceof Stmt.Return) {
-                return visit((Stmt.Return) ast);
-            } else if (ast instanceof Expr.Literal) {
-                return visit((Expr.Literal) ast);
-            } else if (ast instanceof Expr.Group) {
-                return visit((Expr.Group) ast);
-            } else if (ast instanceof Expr.Binary) {
-                return visit((Expr.Binary) ast);
-            } else if (ast instanceof Expr.Access) {
-                return visit((Expr.Access) ast);
-            } else if (ast instanceof Expr.Function) {
-                return visit((Expr.Function) ast);
-            } else {
-                throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
-            }
+            return ast.accept(this);
         }
 
         T visit(Source ast);
@@ -784,6 +1017,12 @@ public abstract class Ast {
 
         T visit(Stmt.Return ast);
 
+        /**
+         * Visits a statement which could not be parsed, see {@link
+         * Parser#parseSource(List)}.
+         */
+        T visit(Stmt.Error ast);
+
         T visit(Expr.Literal ast);
 
         T visit(Expr.Group ast);
@@ -0,0 +1,1149 @@
+package Main;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A compact encoding of an {@link Ast.Source} for large programs. Rather than
+ * one object per node (plus lists, optionals and boxed literals), each node is
+ * a row of parallel columns holding its kind, first child, next sibling and a
+ * payload, which is roughly 13 bytes per node. Names and literals are stored
+ * once in side tables and referenced by index from the payload; nodes with
+ * several names (such as methods) point into a shared {@code int} pool.
+ *
+ * Children are in source order, so a node's children are visited with
+ * {@code for (int child = getFirstChild(node); child != NONE; child =
+ * getNextSibling(child))}. Optional children that are absent are omitted, and
+ * the statements of {@code IF}, {@code FOR} and {@code WHILE} are grouped in a
+ * {@link Kind#BLOCK}.
+ *
+ * An arena can be written with {@link #toByteBuffer()} and read back with
+ * {@link #read(ByteBuffer)}, which uses the columns in the buffer in place
+ * (such as a memory-mapped file) and only decodes a name, literal or
+ * reference the first time it is used. The format is a header followed by the
+ * node columns, the pool, and the string, literal and reference tables, each
+ * of which is a column of offsets followed by the encoded entries.
+ *
+ * The results of analysis are kept in a side column holding the type,
+ * variable or function of each node (see {@link #getType(int)}, {@link
+ * #getVariable(int)} and {@link #getFunction(int)}), so passes such as {@link
+ * Generator#generate(AstArena)} traverse the columns directly without
+ * creating {@link Ast} nodes. Arenas created with {@link
+ * #ofAnalyzed(Ast.Source)} start with the results set on the nodes by the
+ * {@link Analyzer}, and the results are written with the arena as a column of
+ * references. Loaded references are resolved in the scope given to {@link
+ * #read(ByteBuffer, Scope)}, or in the fields and methods of their receiver's
+ * type, so they are the same variables and functions the program runs with;
+ * loaded types must be registered with {@link
+ * Environment#registerType(Environment.Type)}. An arena is not thread safe.
+ */
+public final class AstArena {
+
+    public enum Kind {
+        SOURCE,
+        FIELD,
+        METHOD,
+        BLOCK,
+        EXPRESSION,
+        DECLARATION,
+        ASSIGNMENT,
+        IF,
+        FOR,
+        WHILE,
+        RETURN,
+        ERROR,
+        LITERAL,
+        GROUP,
+        BINARY,
+        ACCESS,
+        FUNCTION
+    }
+
+    /**
+     * The node returned by {@link #getFirstChild(int)} and {@link
+     * #getNextSibling(int)} when there is no such node.
+     */
+    public static final int NONE = -1;
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private static final int MAGIC = 0x504C4141;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 36;
+
+    //Tags of the encoded literals and references
+    private static final byte NIL = 0, TRUE = 1, FALSE = 2, CHARACTER = 3, STRING = 4, INTEGER = 5, DECIMAL = 6;
+    private static final byte TYPE = 0, VARIABLE = 1, FUNCTION = 2;
+    //Where a variable or function reference is resolved when it is loaded
+    private static final byte SCOPE = 0, MEMBER = 1, LOCAL = 2;
+
+    private final int size;
+    private final int root;
+    private final ByteBuffer kinds;
+    private final IntBuffer firstChildren;
+    private final IntBuffer nextSiblings;
+    private final IntBuffer payloads;
+    private final IntBuffer annotations;
+    private Object[] results;
+    private final IntBuffer pool;
+    private final Table names;
+    private final Table literals;
+    private final Table references;
+
+    private AstArena(Builder builder) {
+        this.size = builder.size;
+        this.root = builder.root;
+        this.kinds = ByteBuffer.wrap(builder.kinds);
+        this.firstChildren = IntBuffer.wrap(builder.firstChildren);
+        this.nextSiblings = IntBuffer.wrap(builder.nextSiblings);
+        this.payloads = IntBuffer.wrap(builder.payloads);
+        this.annotations = null;
+        this.results = builder.results;
+        this.pool = IntBuffer.wrap(builder.pool);
+        this.names = new Table(builder.names);
+        this.literals = new Table(builder.literals);
+        this.references = new Table(Arrays.asList());
+    }
+
+    private AstArena(ByteBuffer buffer, Scope scope) {
+        buffer = buffer.slice();
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IllegalArgumentException("Invalid AST format.");
+        }
+        this.size = buffer.getInt();
+        this.root = buffer.getInt();
+        int poolSize = buffer.getInt();
+        int nameCount = buffer.getInt();
+        int literalCount = buffer.getInt();
+        int referenceCount = buffer.getInt();
+        boolean analyzed = buffer.getInt() != 0;
+        this.kinds = bytes(buffer, size);
+        this.firstChildren = ints(buffer, size);
+        this.nextSiblings = ints(buffer, size);
+        this.payloads = ints(buffer, size);
+        this.annotations = analyzed ? ints(buffer, size) : null;
+        this.results = null;
+        this.pool = ints(buffer, poolSize);
+        this.names = new Table(buffer, nameCount, bytes -> StandardCharsets.UTF_8.decode(bytes).toString());
+        this.literals = new Table(buffer, literalCount, AstArena::decodeLiteral);
+        this.references = new Table(buffer, referenceCount, bytes -> decodeReference(bytes, scope));
+    }
+
+    /**
+     * Encodes the given source, which may contain {@link Ast.Stmt.Error}
+     * statements from {@link Parser#parseSource(List)}.
+     */
+    public static AstArena of(Ast.Source ast) {
+        return new AstArena(new Builder(false, ast));
+    }
+
+    /**
+     * Encodes the given source after it has been analyzed, including the
+     * type, variable or function set on each node.
+     */
+    public static AstArena ofAnalyzed(Ast.Source ast) {
+        return new AstArena(new Builder(true, ast));
+    }
+
+    /**
+     * Returns the arena encoded in the buffer from its position, see {@link
+     * #read(ByteBuffer, Scope)}, resolving references in a scope with only
+     * the built-in functions.
+     */
+    public static AstArena read(ByteBuffer buffer) {
+        return read(buffer, new Analyzer(null).getScope());
+    }
+
+    /**
+     * Returns the arena encoded in the buffer from its position, as written by
+     * {@link #toByteBuffer()}. The arena reads from the buffer, which must not
+     * be modified while the arena is in use.
+     *
+     * The variables and functions of an analyzed arena are looked up in the
+     * scope when first used, such as the scope the source was analyzed in.
+     * Those not defined there, such as variables declared in a method body,
+     * are recreated the way the {@link Analyzer} defines them.
+     */
+    public static AstArena read(ByteBuffer buffer, Scope scope) {
+        return new AstArena(buffer, scope);
+    }
+
+    /**
+     * Returns true if the arena records the results of analysis, see {@link
+     * #ofAnalyzed(Ast.Source)}.
+     */
+    public boolean isAnalyzed() {
+        return annotations != null || results != null;
+    }
+
+    /**
+     * Returns the {@link Kind#SOURCE} node.
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Kind getKind(int node) {
+        return KINDS[kinds.get(check(node))];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChildren.get(check(node));
+    }
+
+    public int getNextSibling(int node) {
+        return nextSiblings.get(check(node));
+    }
+
+    /**
+     * Returns the name of a field, method, declaration, for loop, access or
+     * function node.
+     */
+    public String getName(int node) {
+        switch (getKind(node)) {
+            case FOR:
+            case ACCESS:
+                return name(payloads.get(node));
+            case FIELD:
+            case METHOD:
+            case DECLARATION:
+            case FUNCTION:
+                return name(pool.get(payloads.get(node)));
+            default:
+                throw new IllegalArgumentException("A " + getKind(node) + " node has no name.");
+        }
+    }
+
+    /**
+     * Returns the type name of a field or declaration, or the return type name
+     * of a method, which is null if it was not given.
+     */
+    public String getTypeName(int node) {
+        switch (getKind(node)) {
+            case FIELD:
+            case METHOD:
+            case DECLARATION:
+                return name(pool.get(payloads.get(node) + 1));
+            default:
+                throw new IllegalArgumentException("A " + getKind(node) + " node has no type name.");
+        }
+    }
+
+    public String getOperator(int node) {
+        if (getKind(node) != Kind.BINARY) {
+            throw new IllegalArgumentException("A " + getKind(node) + " node has no operator.");
+        }
+        return name(payloads.get(node));
+    }
+
+    public Object getLiteral(int node) {
+        if (getKind(node) != Kind.LITERAL) {
+            throw new IllegalArgumentException("A " + getKind(node) + " node has no literal.");
+        }
+        return literals.get(payloads.get(node));
+    }
+
+    /**
+     * Returns the message of an error node, see {@link Ast.Stmt.Error}.
+     */
+    public String getMessage(int node) {
+        return (String) literals.get(pool.get(errorPayload(node)));
+    }
+
+    /**
+     * Returns the index of the token at which an error node's statement
+     * failed to parse.
+     */
+    public int getIndex(int node) {
+        return pool.get(errorPayload(node) + 1);
+    }
+
+    /**
+     * Returns the number of parameters of a method node.
+     */
+    public int getParameterCount(int node) {
+        return pool.get(methodPayload(node) + 2);
+    }
+
+    public String getParameter(int node, int index) {
+        return name(pool.get(methodPayload(node) + 3 + Objects.checkIndex(index, getParameterCount(node))));
+    }
+
+    public String getParameterTypeName(int node, int index) {
+        return name(pool.get(methodPayload(node) + 3 + getParameterCount(node) + Objects.checkIndex(index, getParameterCount(node))));
+    }
+
+    /**
+     * Returns the receiver of an access or function node, or {@link #NONE}
+     * if it has none. The arguments of a function node are the children after
+     * its receiver.
+     */
+    public int getReceiver(int node) {
+        switch (getKind(node)) {
+            case ACCESS:
+                return firstChildren.get(node);
+            case FUNCTION:
+                return pool.get(payloads.get(node) + 1) != 0 ? firstChildren.get(node) : NONE;
+            default:
+                throw new IllegalArgumentException("A " + getKind(node) + " node has no receiver.");
+        }
+    }
+
+    /**
+     * Returns the type of an expression node, which for access and function
+     * nodes is that of their variable or function.
+     */
+    public Environment.Type getType(int node) {
+        switch (getKind(node)) {
+            case LITERAL:
+            case GROUP:
+            case BINARY:
+                return (Environment.Type) result(node, "type");
+            case ACCESS:
+                return getVariable(node).getType();
+            case FUNCTION:
+                return getFunction(node).getReturnType();
+            default:
+                throw new IllegalArgumentException("A " + getKind(node) + " node has no type.");
+        }
+    }
+
+    public void setType(int node, Environment.Type type) {
+        switch (getKind(node)) {
+            case LITERAL:
+            case GROUP:
+            case BINARY:
+                setResult(node, type);
+                break;
+            default:
+                throw new IllegalArgumentException("A " + getKind(node) + " node has no type.");
+        }
+    }
+
+    /**
+     * Returns the variable of a field, declaration or access node.
+     */
+    public Environment.Variable getVariable(int node) {
+        switch (getKind(node)) {
+            case FIELD:
+            case DECLARATION:
+            case ACCESS:
+                return (Environment.Variable) result(node, "variable");
+            default:
+                throw new IllegalArgumentException("A " + getKind(node) + " node has no variable.");
+        }
+    }
+
+    public void setVariable(int node, Environment.Variable variable) {
+        switch (getKind(node)) {
+            case FIELD:
+            case DECLARATION:
+            case ACCESS:
+                setResult(node, variable);
+                break;
+            default:
+                throw new IllegalArgumentException("A " + getKind(node) + " node has no variable.");
+        }
+    }
+
+    /**
+     * Returns the function of a method or function node.
+     */
+    public Environment.Function getFunction(int node) {
+        switch (getKind(node)) {
+            case METHOD:
+            case FUNCTION:
+                return (Environment.Function) result(node, "function");
+            default:
+                throw new IllegalArgumentException("A " + getKind(node) + " node has no function.");
+        }
+    }
+
+    public void setFunction(int node, Environment.Function function) {
+        switch (getKind(node)) {
+            case METHOD:
+            case FUNCTION:
+                setResult(node, function);
+                break;
+            default:
+                throw new IllegalArgumentException("A " + getKind(node) + " node has no function.");
+        }
+    }
+
+    /**
+     * Returns a new {@link Ast.Source} with the encoded nodes.
+     */
+    public Ast.Source toAst() {
+        return toSource(root);
+    }
+
+    /**
+     * Returns a new {@link Ast} for the subtree of the given node, which must
+     * not be a {@link Kind#BLOCK}.
+     */
+    public Ast toAst(int node) {
+        switch (getKind(node)) {
+            case SOURCE:
+                return toSource(node);
+            case FIELD:
+                return toField(node);
+            case METHOD:
+                return toMethod(node);
+            case BLOCK:
+                throw new IllegalArgumentException("A BLOCK node has no Ast.");
+            case LITERAL:
+            case GROUP:
+            case BINARY:
+            case ACCESS:
+            case FUNCTION:
+                return toExpression(node);
+            default:
+                return toStatement(node);
+        }
+    }
+
+    /**
+     * Returns a new buffer with the encoded arena, see {@link
+     * #read(ByteBuffer, Scope)}.
+     */
+    public ByteBuffer toByteBuffer() {
+        byte[][] names = this.names.encode(name -> ((String) name).getBytes(StandardCharsets.UTF_8));
+        byte[][] literals = this.literals.encode(AstArena::encodeLiteral);
+        //The results are written as a column of indices into a table of the distinct references
+        IntBuffer annotations = null;
+        List<Object> distinct = new ArrayList<>();
+        Map<Object, String> owners = new IdentityHashMap<>();
+        Map<Object, Boolean> locals = new IdentityHashMap<>();
+        if (isAnalyzed()) {
+            Map<Object, Integer> indices = new IdentityHashMap<>();
+            annotations = IntBuffer.allocate(size);
+            for (int i = 0; i < size; i++) {
+                Object result = result(i);
+                annotations.put(i, result == null ? NONE : indices.computeIfAbsent(result, r -> {
+                    distinct.add(r);
+                    return distinct.size() - 1;
+                }));
+                if (result != null && getKind(i) == Kind.DECLARATION) {
+                    locals.put(result, true);
+                } else if (result != null && (getKind(i) == Kind.ACCESS || getKind(i) == Kind.FUNCTION) && getReceiver(i) != NONE) {
+                    owners.put(result, getType(getReceiver(i)).getName());
+                }
+            }
+        }
+        byte[][] references = new Table(distinct).encode(reference ->
+                encodeReference(reference, owners.containsKey(reference) ? MEMBER : locals.containsKey(reference) ? LOCAL : SCOPE, owners.getOrDefault(reference, "")));
+        long length = HEADER_SIZE + align(size) + 4L * size * (isAnalyzed() ? 4 : 3) + 4L * pool.limit()
+                + length(names) + length(literals) + length(references);
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The arena is too large to encode.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(root).putInt(pool.limit());
+        buffer.putInt(names.length).putInt(literals.length).putInt(references.length).putInt(isAnalyzed() ? 1 : 0);
+        for (int i = 0; i < size; i++) {
+            buffer.put(kinds.get(i));
+        }
+        buffer.position(buffer.position() + align(size) - size);
+        for (IntBuffer column : isAnalyzed()
+                ? Arrays.asList(firstChildren, nextSiblings, payloads, annotations)
+                : Arrays.asList(firstChildren, nextSiblings, payloads)) {
+            for (int i = 0; i < size; i++) {
+                buffer.putInt(column.get(i));
+            }
+        }
+        for (int i = 0; i < pool.limit(); i++) {
+            buffer.putInt(pool.get(i));
+        }
+        for (byte[][] table : Arrays.asList(names, literals, references)) {
+            int offset = 0;
+            buffer.putInt(offset);
+            for (byte[] entry : table) {
+                buffer.putInt(offset += entry.length);
+            }
+            for (byte[] entry : table) {
+                buffer.put(entry);
+            }
+            buffer.position(buffer.position() + align(offset) - offset);
+        }
+        return buffer.flip();
+    }
+
+    private int check(int node) {
+        if (node < 0 || node >= size) {
+            throw new IndexOutOfBoundsException("Node " + node + " out of bounds for length " + size + ".");
+        }
+        return node;
+    }
+
+    private String name(int index) {
+        return index == NONE ? null : (String) names.get(index);
+    }
+
+    private int errorPayload(int node) {
+        if (getKind(node) != Kind.ERROR) {
+            throw new IllegalArgumentException("A " + getKind(node) + " node is not an error.");
+        }
+        return payloads.get(node);
+    }
+
+    private int methodPayload(int node) {
+        if (getKind(node) != Kind.METHOD) {
+            throw new IllegalArgumentException("A " + getKind(node) + " node has no parameters.");
+        }
+        return payloads.get(node);
+    }
+
+    /**
+     * Returns the type, variable or function of the node, or null if it has
+     * none, decoding it from the column of references the first time if the
+     * arena was read from a buffer.
+     */
+    private Object result(int node) {
+        if (results != null && results[node] != null) {
+            return results[node];
+        }
+        if (annotations == null || annotations.get(node) == NONE) {
+            return null;
+        }
+        Object result = references.get(annotations.get(node));
+        setResult(node, result);
+        return result;
+    }
+
+    private Object result(int node, String name) {
+        Object result = result(node);
+        if (result == null) {
+            throw new IllegalStateException(name + " is uninitialized");
+        }
+        return result;
+    }
+
+    private void setResult(int node, Object result) {
+        if (results == null) {
+            results = new Object[size];
+        }
+        results[node] = result;
+    }
+
+    private static int align(int length) {
+        return (length + 3) & ~3;
+    }
+
+    private static long length(byte[][] table) {
+        long length = 0;
+        for (byte[] entry : table) {
+            length += entry.length;
+        }
+        return 4L * (table.length + 1) + ((length + 3) & ~3L);
+    }
+
+    /**
+     * Returns a view of the next bytes of the buffer, skipping past them and
+     * their padding.
+     */
+    private static ByteBuffer bytes(ByteBuffer buffer, int length) {
+        ByteBuffer bytes = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + align(length));
+        return bytes;
+    }
+
+    private static IntBuffer ints(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining() / 4) {
+            throw new IllegalArgumentException("Invalid AST format.");
+        }
+        IntBuffer ints = buffer.slice(buffer.position(), 4 * length).asIntBuffer();
+        buffer.position(buffer.position() + 4 * length);
+        return ints;
+    }
+
+    private Ast.Source toSource(int node) {
+        List<Ast.Field> fields = new ArrayList<>();
+        List<Ast.Method> methods = new ArrayList<>();
+        for (int child = firstChildren.get(node); child != NONE; child = nextSiblings.get(child)) {
+            if (kinds.get(child) == Kind.FIELD.ordinal()) {
+                fields.add(toField(child));
+            } else {
+                methods.add(toMethod(child));
+            }
+        }
+        return new Ast.Source(fields, methods);
+    }
+
+    private Ast.Field toField(int node) {
+        int payload = payloads.get(node);
+        Ast.Field field = new Ast.Field(name(pool.get(payload)), name(pool.get(payload + 1)), toOptional(firstChildren.get(node)));
+        if (result(node) != null) {
+            field.setVariable((Environment.Variable) result(node));
+        }
+        return field;
+    }
+
+    private Ast.Method toMethod(int node) {
+        int payload = payloads.get(node);
+        int count = pool.get(payload + 2);
+        List<String> parameters = new ArrayList<>(count);
+        List<String> parameterTypeNames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            parameters.add(name(pool.get(payload + 3 + i)));
+            parameterTypeNames.add(name(pool.get(payload + 3 + count + i)));
+        }
+        Ast.Method method = new Ast.Method(name(pool.get(payload)), parameters, parameterTypeNames,
+                Optional.ofNullable(name(pool.get(payload + 1))), toStatements(node));
+        if (result(node) != null) {
+            method.setFunction((Environment.Function) result(node));
+        }
+        return method;
+    }
+
+    private List<Ast.Stmt> toStatements(int parent) {
+        List<Ast.Stmt> statements = new ArrayList<>();
+        for (int child = firstChildren.get(parent); child != NONE; child = nextSiblings.get(child)) {
+            statements.add(toStatement(child));
+        }
+        return statements;
+    }
+
+    private Ast.Stmt toStatement(int node) {
+        int first = firstChildren.get(node);
+        int payload = payloads.get(node);
+        switch (KINDS[kinds.get(node)]) {
+            case EXPRESSION:
+                return new Ast.Stmt.Expression(toExpression(first));
+            case DECLARATION:
+                Ast.Stmt.Declaration declaration = new Ast.Stmt.Declaration(name(pool.get(payload)),
+                        Optional.ofNullable(name(pool.get(payload + 1))), toOptional(first));
+                if (result(node) != null) {
+                    declaration.setVariable((Environment.Variable) result(node));
+                }
+                return declaration;
+            case ASSIGNMENT:
+                return new Ast.Stmt.Assignment(toExpression(first), toExpression(nextSiblings.get(first)));
+            case IF:
+                int then = nextSiblings.get(first);
+                return new Ast.Stmt.If(toExpression(first), toStatements(then), toStatements(nextSiblings.get(then)));
+            case FOR:
+                return new Ast.Stmt.For(name(payload), toExpression(first), toStatements(nextSiblings.get(first)));
+            case WHILE:
+                return new Ast.Stmt.While(toExpression(first), toStatements(nextSiblings.get(first)));
+            case RETURN:
+                return new Ast.Stmt.Return(toExpression(first));
+            case ERROR:
+                return new Ast.Stmt.Error((String) literals.get(pool.get(payload)), pool.get(payload + 1));
+            default:
+                throw new IllegalArgumentException("A " + KINDS[kinds.get(node)] + " node is not a statement.");
+        }
+    }
+
+    private Ast.Expr toExpression(int node) {
+        int first = firstChildren.get(node);
+        int payload = payloads.get(node);
+        switch (KINDS[kinds.get(node)]) {
+            case LITERAL:
+                Ast.Expr.Literal literal = new Ast.Expr.Literal(literals.get(payload));
+                if (result(node) != null) {
+                    literal.setType((Environment.Type) result(node));
+                }
+                return literal;
+            case GROUP:
+                Ast.Expr.Group group = new Ast.Expr.Group(toExpression(first));
+                if (result(node) != null) {
+                    group.setType((Environment.Type) result(node));
+                }
+                return group;
+            case BINARY:
+                //Rebuilds a chain from the innermost operand outwards, as in Builder.add(Ast.Expr)
+                List<Integer> chain = new ArrayList<>();
+                int left = node;
+                while (kinds.get(left) == Kind.BINARY.ordinal()) {
+                    chain.add(left);
+                    left = firstChildren.get(left);
+                }
+                Ast.Expr expression = toExpression(left);
+                for (int i = chain.size() - 1; i >= 0; i--) {
+                    int binary = chain.get(i);
+                    expression = new Ast.Expr.Binary(name(payloads.get(binary)), expression,
+                            toExpression(nextSiblings.get(firstChildren.get(binary))));
+                    if (result(binary) != null) {
+                        ((Ast.Expr.Binary) expression).setType((Environment.Type) result(binary));
+                    }
+                }
+                return expression;
+            case ACCESS:
+                Ast.Expr.Access access = new Ast.Expr.Access(toOptional(first), name(payload));
+                if (result(node) != null) {
+                    access.setVariable((Environment.Variable) result(node));
+                }
+                return access;
+            case FUNCTION:
+                Optional<Ast.Expr> receiver = Optional.empty();
+                if (pool.get(payload + 1) != 0) {
+                    receiver = Optional.of(toExpression(first));
+                    first = nextSiblings.get(first);
+                }
+                List<Ast.Expr> arguments = new ArrayList<>();
+                for (int child = first; child != NONE; child = nextSiblings.get(child)) {
+                    arguments.add(toExpression(child));
+                }
+                Ast.Expr.Function function = new Ast.Expr.Function(receiver, name(pool.get(payload)), arguments);
+                if (result(node) != null) {
+                    function.setFunction((Environment.Function) result(node));
+                }
+                return function;
+            default:
+                throw new IllegalArgumentException("A " + KINDS[kinds.get(node)] + " node is not an expression.");
+        }
+    }
+
+    private Optional<Ast.Expr> toOptional(int node) {
+        return node == NONE ? Optional.empty() : Optional.of(toExpression(node));
+    }
+
+    private static byte[] encodeLiteral(Object literal) {
+        if (literal == null) {
+            return new byte[] {NIL};
+        } else if (literal instanceof Boolean) {
+            return new byte[] {(Boolean) literal ? TRUE : FALSE};
+        } else if (literal instanceof Character) {
+            return ByteBuffer.allocate(3).put(CHARACTER).putChar((Character) literal).array();
+        } else if (literal instanceof String) {
+            byte[] bytes = ((String) literal).getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(1 + bytes.length).put(STRING).put(bytes).array();
+        } else if (literal instanceof BigInteger) {
+            byte[] bytes = ((BigInteger) literal).toByteArray();
+            return ByteBuffer.allocate(1 + bytes.length).put(INTEGER).put(bytes).array();
+        } else if (literal instanceof BigDecimal) {
+            byte[] bytes = ((BigDecimal) literal).unscaledValue().toByteArray();
+            return ByteBuffer.allocate(5 + bytes.length).put(DECIMAL).putInt(((BigDecimal) literal).scale()).put(bytes).array();
+        } else {
+            throw new IllegalArgumentException("Cannot encode literal " + literal.getClass().getName() + ".");
+        }
+    }
+
+    private static Object decodeLiteral(ByteBuffer buffer) {
+        switch (buffer.get()) {
+            case NIL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case CHARACTER:
+                return buffer.getChar();
+            case STRING:
+                return StandardCharsets.UTF_8.decode(buffer).toString();
+            case INTEGER:
+                return new BigInteger(remaining(buffer));
+            case DECIMAL:
+                int scale = buffer.getInt();
+                return new BigDecimal(new BigInteger(remaining(buffer)), scale);
+            default:
+                throw new IllegalArgumentException("Invalid literal tag.");
+        }
+    }
+
+    /**
+     * Encodes a type, variable or function as its tag, where it is resolved
+     * and the names needed to resolve or recreate it (including the type of
+     * the receiver of a member), each prefixed by its length.
+     */
+    private static byte[] encodeReference(Object reference, byte origin, String owner) {
+        List<String> strings = new ArrayList<>();
+        byte tag;
+        if (reference instanceof Environment.Type) {
+            tag = TYPE;
+            strings.add(((Environment.Type) reference).getName());
+        } else if (reference instanceof Environment.Variable) {
+            Environment.Variable variable = (Environment.Variable) reference;
+            tag = VARIABLE;
+            strings.addAll(Arrays.asList(variable.getName(), variable.getJvmName(), variable.getType().getName(), owner));
+        } else if (reference instanceof Environment.Function) {
+            Environment.Function function = (Environment.Function) reference;
+            tag = FUNCTION;
+            strings.addAll(Arrays.asList(function.getName(), function.getJvmName(), function.getReturnType().getName(), owner));
+            for (Environment.Type type : function.getParameterTypes()) {
+                strings.add(type.getName());
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot encode reference " + reference + ".");
+        }
+        List<byte[]> bytes = new ArrayList<>();
+        int length = 2;
+        for (String string : strings) {
+            bytes.add(string.getBytes(StandardCharsets.UTF_8));
+            length += 4 + bytes.get(bytes.size() - 1).length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length).put(tag).put(origin);
+        for (byte[] string : bytes) {
+            buffer.putInt(string.length).put(string);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a type, variable or function, resolving a member in the type of
+     * its receiver and anything else that is not local in the scope. Those
+     * which are not found, or which differ from the encoded one, are
+     * recreated the way the {@link Analyzer} defines them.
+     */
+    private static Object decodeReference(ByteBuffer buffer, Scope scope) {
+        byte tag = buffer.get();
+        byte origin = buffer.get();
+        List<String> strings = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            int length = buffer.getInt();
+            strings.add(StandardCharsets.UTF_8.decode(buffer.slice(buffer.position(), length)).toString());
+            buffer.position(buffer.position() + length);
+        }
+        if (tag == TYPE) {
+            return Environment.getType(strings.get(0));
+        }
+        String name = strings.get(0);
+        String jvmName = strings.get(1);
+        Environment.Type type = Environment.getType(strings.get(2));
+        if (tag == VARIABLE) {
+            Environment.Variable variable = origin == MEMBER ? Environment.getType(strings.get(3)).getField(name)
+                    : origin == SCOPE ? lookup(() -> scope.lookupVariable(name)) : null;
+            if (variable != null && variable.getJvmName().equals(jvmName) && variable.getType() == type) {
+                return variable;
+            }
+            return new Environment.Variable(name, jvmName, type, Environment.NIL);
+        } else if (tag == FUNCTION) {
+            List<Environment.Type> parameterTypes = new ArrayList<>();
+            for (String typeName : strings.subList(4, strings.size())) {
+                parameterTypes.add(Environment.getType(typeName));
+            }
+            //The parameters of a method include its receiver
+            Environment.Function function = origin == MEMBER ? Environment.getType(strings.get(3)).getMethod(name, parameterTypes.size() - 1)
+                    : lookup(() -> scope.lookupFunction(name, parameterTypes.size()));
+            if (function != null && function.getJvmName().equals(jvmName) && function.getReturnType() == type
+                    && function.getParameterTypes().equals(parameterTypes)) {
+                return function;
+            }
+            return new Environment.Function(name, jvmName, parameterTypes, type, args -> Environment.NIL);
+        }
+        throw new IllegalArgumentException("Invalid reference tag.");
+    }
+
+    /**
+     * Returns the variable or function found by a lookup in a scope, or null
+     * if it is not defined there.
+     */
+    private static <T> T lookup(Supplier<T> lookup) {
+        try {
+            return lookup.get();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static byte[] remaining(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * A table of names, literals or references, which when read from a buffer
+     * decodes each entry the first time it is used.
+     */
+    private static final class Table {
+
+        private final Object[] values;
+        private final boolean[] decoded;
+        private final ByteBuffer data;
+        private final IntBuffer offsets;
+        private final Function<ByteBuffer, Object> decoder;
+
+        private Table(List<?> values) {
+            this.values = values.toArray();
+            this.decoded = null;
+            this.data = null;
+            this.offsets = null;
+            this.decoder = null;
+        }
+
+        private Table(ByteBuffer buffer, int count, Function<ByteBuffer, Object> decoder) {
+            //The offsets are bounded by the buffer before the table is allocated
+            this.offsets = ints(buffer, count + 1);
+            this.data = bytes(buffer, offsets.get(count));
+            this.values = new Object[count];
+            this.decoded = new boolean[count];
+            this.decoder = decoder;
+        }
+
+        private Object get(int index) {
+            if (decoded != null && !decoded[index]) {
+                values[index] = decoder.apply(data.slice(offsets.get(index), offsets.get(index + 1) - offsets.get(index)));
+                decoded[index] = true;
+            }
+            return values[index];
+        }
+
+        private byte[][] encode(Function<Object, byte[]> encoder) {
+            byte[][] entries = new byte[values.length][];
+            for (int i = 0; i < values.length; i++) {
+                entries[i] = encoder.apply(get(i));
+            }
+            return entries;
+        }
+
+    }
+
+    /**
+     * Encodes the nodes of a source into growable columns.
+     */
+    private static final class Builder {
+
+        private byte[] kinds = new byte[64];
+        private int[] firstChildren = new int[64];
+        private int[] nextSiblings = new int[64];
+        private int[] payloads = new int[64];
+        private Object[] results;
+        private int size = 0;
+        private int[] pool = new int[64];
+        private int poolSize = 0;
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> nameIndices = new HashMap<>();
+        private final List<Object> literals = new ArrayList<>();
+        private final Map<Object, Integer> literalIndices = new HashMap<>();
+        private final int root;
+
+        private Builder(boolean analyzed, Ast.Source ast) {
+            this.results = analyzed ? new Object[64] : null;
+            this.root = add(ast);
+            this.kinds = Arrays.copyOf(kinds, size);
+            this.firstChildren = Arrays.copyOf(firstChildren, size);
+            this.nextSiblings = Arrays.copyOf(nextSiblings, size);
+            this.payloads = Arrays.copyOf(payloads, size);
+            this.results = analyzed ? Arrays.copyOf(results, size) : null;
+            this.pool = Arrays.copyOf(pool, poolSize);
+        }
+
+        private int node(Kind kind, int payload) {
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                firstChildren = Arrays.copyOf(firstChildren, size * 2);
+                nextSiblings = Arrays.copyOf(nextSiblings, size * 2);
+                payloads = Arrays.copyOf(payloads, size * 2);
+                if (results != null) {
+                    results = Arrays.copyOf(results, size * 2);
+                }
+            }
+            kinds[size] = (byte) kind.ordinal();
+            firstChildren[size] = NONE;
+            nextSiblings[size] = NONE;
+            payloads[size] = payload;
+            return size++;
+        }
+
+        /**
+         * Records the type, variable or function of an analyzed node, which
+         * is only read if the source is being encoded with annotations. Nodes
+         * the analyzer did not annotate are recorded without one.
+         */
+        private void annotate(int node, Supplier<Object> reference) {
+            if (results == null) {
+                return;
+            }
+            try {
+                results[node] = reference.get();
+            } catch (IllegalStateException e) {
+                //Left without a result by the analyzer
+            }
+        }
+
+        /**
+         * Adds the child after the previous child of the parent (or as its
+         * first child if previous is {@link #NONE}), returning the child.
+         */
+        private int append(int parent, int previous, int child) {
+            if (previous == NONE) {
+                firstChildren[parent] = child;
+            } else {
+                nextSiblings[previous] = child;
+            }
+            return child;
+        }
+
+        private int pool(int... values) {
+            while (poolSize + values.length > pool.length) {
+                pool = Arrays.copyOf(pool, pool.length * 2);
+            }
+            System.arraycopy(values, 0, pool, poolSize, values.length);
+            poolSize += values.length;
+            return poolSize - values.length;
+        }
+
+        private int name(String name) {
+            if (name == null) {
+                return NONE;
+            }
+            return nameIndices.computeIfAbsent(name, n -> {
+                names.add(n);
+                return names.size() - 1;
+            });
+        }
+
+        private int literal(Object literal) {
+            return literalIndices.computeIfAbsent(literal, l -> {
+                literals.add(l);
+                return literals.size() - 1;
+            });
+        }
+
+        private int add(Ast.Source ast) {
+            int node = node(Kind.SOURCE, NONE);
+            int last = NONE;
+            for (Ast.Field field : ast.getFields()) {
+                last = append(node, last, add(field));
+            }
+            for (Ast.Method method : ast.getMethods()) {
+                last = append(node, last, add(method));
+            }
+            return node;
+        }
+
+        private int add(Ast.Field ast) {
+            int node = node(Kind.FIELD, pool(name(ast.getName()), name(ast.getTypeName())));
+            annotate(node, ast::getVariable);
+            if (ast.getValue().isPresent()) {
+                append(node, NONE, add(ast.getValue().get()));
+            }
+            return node;
+        }
+
+        private int add(Ast.Method ast) {
+            int count = ast.getParameters().size();
+            int payload = pool(name(ast.getName()), name(ast.getReturnTypeName().orElse(null)), count);
+            for (String parameter : ast.getParameters()) {
+                pool(name(parameter));
+            }
+            for (String typeName : ast.getParameterTypeNames()) {
+                pool(name(typeName));
+            }
+            int node = node(Kind.METHOD, payload);
+            annotate(node, ast::getFunction);
+            add(node, ast.getStatements());
+            return node;
+        }
+
+        private int block(List<Ast.Stmt> statements) {
+            int node = node(Kind.BLOCK, NONE);
+            add(node, statements);
+            return node;
+        }
+
+        private void add(int parent, List<Ast.Stmt> statements) {
+            int last = NONE;
+            for (Ast.Stmt statement : statements) {
+                last = append(parent, last, add(statement));
+            }
+        }
+
+        private int add(Ast.Stmt ast) {
+            int node;
+            if (ast instanceof Ast.Stmt.Expression) {
+                node = node(Kind.EXPRESSION, NONE);
+                append(node, NONE, add(((Ast.Stmt.Expression) ast).getExpression()));
+            } else if (ast instanceof Ast.Stmt.Declaration) {
+                Ast.Stmt.Declaration declaration = (Ast.Stmt.Declaration) ast;
+                node = node(Kind.DECLARATION, pool(name(declaration.getName()), name(declaration.getTypeName().orElse(null))));
+                annotate(node, declaration::getVariable);
+                if (declaration.getValue().isPresent()) {
+                    append(node, NONE, add(declaration.getValue().get()));
+                }
+            } else if (ast instanceof Ast.Stmt.Assignment) {
+                node = node(Kind.ASSIGNMENT, NONE);
+                int receiver = append(node, NONE, add(((Ast.Stmt.Assignment) ast).getReceiver()));
+                append(node, receiver, add(((Ast.Stmt.Assignment) ast).getValue()));
+            } else if (ast instanceof Ast.Stmt.If) {
+                node = node(Kind.IF, NONE);
+                int condition = append(node, NONE, add(((Ast.Stmt.If) ast).getCondition()));
+                int then = append(node, condition, block(((Ast.Stmt.If) ast).getThenStatements()));
+                append(node, then, block(((Ast.Stmt.If) ast).getElseStatements()));
+            } else if (ast instanceof Ast.Stmt.For) {
+                node = node(Kind.FOR, name(((Ast.Stmt.For) ast).getName()));
+                int value = append(node, NONE, add(((Ast.Stmt.For) ast).getValue()));
+                append(node, value, block(((Ast.Stmt.For) ast).getStatements()));
+            } else if (ast instanceof Ast.Stmt.While) {
+                node = node(Kind.WHILE, NONE);
+                int condition = append(node, NONE, add(((Ast.Stmt.While) ast).getCondition()));
+                append(node, condition, block(((Ast.Stmt.While) ast).getStatements()));
+            } else if (ast instanceof Ast.Stmt.Return) {
+                node = node(Kind.RETURN, NONE);
+                append(node, NONE, add(((Ast.Stmt.Return) ast).getValue()));
+            } else if (ast instanceof Ast.Stmt.Error) {
+                node = node(Kind.ERROR, pool(literal(((Ast.Stmt.Error) ast).getMessage()), ((Ast.Stmt.Error) ast).getIndex()));
+            } else {
+                throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
+            }
+            return node;
+        }
+
+        private int add(Ast.Expr ast) {
+            int node;
+            if (ast instanceof Ast.Expr.Literal) {
+                node = node(Kind.LITERAL, literal(((Ast.Expr.Literal) ast).getLiteral()));
+                annotate(node, ast::getType);
+            } else if (ast instanceof Ast.Expr.Group) {
+                node = node(Kind.GROUP, NONE);
+                annotate(node, ast::getType);
+                append(node, NONE, add(((Ast.Expr.Group) ast).getExpression()));
+            } else if (ast instanceof Ast.Expr.Binary) {
+                //Walks the left spine of a chain iteratively, adding the innermost operand first
+                List<Ast.Expr.Binary> chain = new ArrayList<>();
+                Ast.Expr left = ast;
+                while (left instanceof Ast.Expr.Binary) {
+                    chain.add((Ast.Expr.Binary) left);
+                    left = ((Ast.Expr.Binary) left).getLeft();
+                }
+                node = add(left);
+                for (int i = chain.size() - 1; i >= 0; i--) {
+                    int binary = node(Kind.BINARY, name(chain.get(i).getOperator()));
+                    annotate(binary, chain.get(i)::getType);
+                    append(binary, append(binary, NONE, node), add(chain.get(i).getRight()));
+                    node = binary;
+                }
+            } else if (ast instanceof Ast.Expr.Access) {
+                node = node(Kind.ACCESS, name(((Ast.Expr.Access) ast).getName()));
+                annotate(node, ((Ast.Expr.Access) ast)::getVariable);
+                if (((Ast.Expr.Access) ast).getReceiver().isPresent()) {
+                    append(node, NONE, add(((Ast.Expr.Access) ast).getReceiver().get()));
+                }
+            } else if (ast instanceof Ast.Expr.Function) {
+                Ast.Expr.Function function = (Ast.Expr.Function) ast;
+                node = node(Kind.FUNCTION, pool(name(function.getName()), function.getReceiver().isPresent() ? 1 : 0));
+                annotate(node, function::getFunction);
+                int last = NONE;
+                if (function.getReceiver().isPresent()) {
+                    last = append(node, last, add(function.getReceiver().get()));
+                }
+                for (Ast.Expr argument : function.getArguments()) {
+                    last = append(node, last, add(argument));
+                }
+            } else {
+                throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
+            }
+            return node;
+        }
+
+    }
+
+}
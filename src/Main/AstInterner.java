@@ -0,0 +1,131 @@
+package Main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Interns expressions so that structurally identical subexpressions share a
+ * single node, such as the repeated constants of generated code. Nodes are
+ * looked up after their operands have been interned, so hashing and comparing
+ * two candidates only uses their own literal or operator and the identity of
+ * their operands, rather than their whole structure.
+ *
+ * A shared node has one result of analysis wherever it appears, whether on
+ * the node or in an {@link Analysis}, so only nodes whose results do not
+ * depend on the scope they appear in are shared: literals, and groups and
+ * binary expressions of them. Accesses and functions resolve their names in
+ * their own scope and are never shared, though their operands are.
+ */
+public final class AstInterner {
+
+    private final Map<Key, Ast.Expr> nodes = new HashMap<>();
+    private final Set<Ast.Expr> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Returns the number of distinct shared nodes.
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns an expression equal in structure to the given one in which
+     * every scope-independent subexpression is the shared node for its
+     * structure. Nodes are only recreated when one of their operands changed.
+     */
+    public Ast.Expr intern(Ast.Expr ast) {
+        if (ast instanceof Ast.Expr.Literal) {
+            return share(ast, ((Ast.Expr.Literal) ast).getLiteral(), null, null);
+        } else if (ast instanceof Ast.Expr.Group) {
+            Ast.Expr.Group group = (Ast.Expr.Group) ast;
+            Ast.Expr expression = intern(group.getExpression());
+            Ast.Expr node = expression == group.getExpression() ? group : new Ast.Expr.Group(expression);
+            return shared.contains(expression) ? share(node, Ast.Expr.Group.class, expression, null) : node;
+        } else if (ast instanceof Ast.Expr.Binary) {
+            //Interns a chain from the innermost operand out, without recursing down its left spine
+            List<Ast.Expr.Binary> chain = new ArrayList<>();
+            Ast.Expr left = ast;
+            while (left instanceof Ast.Expr.Binary) {
+                chain.add((Ast.Expr.Binary) left);
+                left = ((Ast.Expr.Binary) left).getLeft();
+            }
+            left = intern(left);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                Ast.Expr.Binary binary = chain.get(i);
+                Ast.Expr right = intern(binary.getRight());
+                Ast.Expr node = left == binary.getLeft() && right == binary.getRight() ? binary : new Ast.Expr.Binary(binary.getOperator(), left, right);
+                left = shared.contains(left) && shared.contains(right) ? share(node, binary.getOperator(), left, right) : node;
+            }
+            return left;
+        } else if (ast instanceof Ast.Expr.Access) {
+            Ast.Expr.Access access = (Ast.Expr.Access) ast;
+            Optional<Ast.Expr> receiver = access.getReceiver().map(this::intern);
+            boolean changed = receiver.isPresent() && receiver.get() != access.getReceiver().get();
+            return changed ? new Ast.Expr.Access(receiver, access.getName()) : access;
+        } else if (ast instanceof Ast.Expr.Function) {
+            Ast.Expr.Function function = (Ast.Expr.Function) ast;
+            Optional<Ast.Expr> receiver = function.getReceiver().map(this::intern);
+            boolean changed = receiver.isPresent() && receiver.get() != function.getReceiver().get();
+            List<Ast.Expr> arguments = new ArrayList<>(function.getArguments().size());
+            for (Ast.Expr argument : function.getArguments()) {
+                arguments.add(intern(argument));
+                changed |= arguments.get(arguments.size() - 1) != argument;
+            }
+            return changed ? new Ast.Expr.Function(receiver, function.getName(), arguments) : function;
+        } else {
+            throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
+        }
+    }
+
+    /**
+     * Returns the shared node with the structure of the given node, which is
+     * described by its literal or operator and its interned operands.
+     */
+    private Ast.Expr share(Ast.Expr node, Object value, Ast.Expr left, Ast.Expr right) {
+        Ast.Expr existing = nodes.putIfAbsent(new Key(node.getClass(), value, left, right), node);
+        if (existing != null) {
+            return existing;
+        }
+        shared.add(node);
+        return node;
+    }
+
+    private static final class Key {
+
+        private final Class<?> kind;
+        private final Object value;
+        private final Ast.Expr left;
+        private final Ast.Expr right;
+
+        private Key(Class<?> kind, Object value, Ast.Expr left, Ast.Expr right) {
+            this.kind = kind;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key &&
+                    kind == ((Key) obj).kind &&
+                    Objects.equals(value, ((Key) obj).value) &&
+                    left == ((Key) obj).left &&
+                    right == ((Key) obj).right;
+        }
+
+        @Override
+        public int hashCode() {
+            //The operands are already shared nodes, so their identity stands for their structure
+            return Objects.hash(kind, value, System.identityHashCode(left), System.identityHashCode(right));
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+package Main;
+
+import java.util.Objects;
+
+/**
+ * A change to source text, replacing {@code removed} characters starting at
+ * {@code offset} with the {@code inserted} text. Used by {@link
+ * Lexer#relex(String, java.util.List, Edit)} to update tokens incrementally.
+ */
+public final class Edit {
+
+    private final int offset;
+    private final int removed;
+    private final String inserted;
+
+    public Edit(int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0) {
+            throw new IllegalArgumentException("Invalid edit at " + offset + " removing " + removed + " characters.");
+        }
+        this.offset = offset;
+        this.removed = removed;
+        this.inserted = inserted;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    public String getInserted() {
+        return inserted;
+    }
+
+    /**
+     * Returns the change in length of the source, which is also how far text
+     * after the edit moves.
+     */
+    public int getDelta() {
+        return inserted.length() - removed;
+    }
+
+    /**
+     * Returns the source with this edit applied.
+     */
+    public String apply(String source) {
+        return source.substring(0, offset) + inserted + source.substring(offset + removed);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Edit &&
+                offset == ((Edit) obj).offset &&
+                removed == ((Edit) obj).removed &&
+                inserted.equals(((Edit) obj).inserted);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(offset, removed, inserted);
+    }
+
+    @Override
+    public String toString() {
+        return "Edit{" +
+                "offset=" + offset +
+                ", removed=" + removed +
+                ", inserted='" + inserted + '\'' +
+                '}';
+    }
+
+}
@@ -2,7 +2,9 @@ package Main;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,20 +19,90 @@ public final class Environment {
 
     });
 
-    private static final Map<String, Type> TYPES = new HashMap<>();
+    /**
+     * The registered types by name and by ID, which are replaced rather than
+     * modified by {@link #registerType(Type)}, so they can be read from any
+     * thread (such as those of {@link Analyzer#analyzeParallel(Ast.Source)})
+     * without locking.
+     */
+    private static volatile Map<String, Type> TYPES = new HashMap<>();
+    private static volatile Type[] IDS = new Type[0];
+
+    /**
+     * For each registered type by ID, a bitset of the IDs of the types it can
+     * be assigned to, see {@link #isAssignable(Type, Type)}.
+     */
+    private static volatile long[][] ASSIGNABLE = new long[0][];
 
     public static Type getType(String name) {
-        if (!TYPES.containsKey(name)) {
+        Type type = TYPES.get(name);
+        if (type == null) {
             throw new RuntimeException("Unknown type " + name + ".");
         }
-        return TYPES.get(name);
+        return type;
     }
 
-    public static void registerType(Type type) {
+    /**
+     * Returns the registered type with the given ID, see {@link Type#getId()}.
+     */
+    public static Type getType(int id) {
+        return IDS[id];
+    }
+
+    /**
+     * Registers a type, giving it the next ID and recomputing which registered
+     * types are assignable to each other.
+     */
+    public static synchronized void registerType(Type type) {
         if (TYPES.containsKey(type.getName())) {
             throw new IllegalArgumentException("Duplicate registration of type " + type.getName() + ".");
         }
-        TYPES.put(type.getName(), type);
+        Map<String, Type> types = new HashMap<>(TYPES);
+        types.put(type.getName(), type);
+        Type[] ids = Arrays.copyOf(IDS, IDS.length + 1);
+        type.id = IDS.length;
+        ids[type.id] = type;
+        Map<Scope, List<Type>> scopes = new IdentityHashMap<>();
+        for (Type registered : ids) {
+            scopes.computeIfAbsent(registered.scope, scope -> new ArrayList<>()).add(registered);
+        }
+        long[][] assignable = new long[ids.length][(ids.length + 63) / 64];
+        for (Type registered : ids) {
+            long[] row = assignable[registered.id];
+            row[registered.id >>> 6] |= 1L << registered.id;
+            row[Type.ANY.id >>> 6] |= 1L << Type.ANY.id;
+            for (Scope scope = registered.scope; scope != null; scope = scope.getParent()) {
+                for (Type supertype : scopes.getOrDefault(scope, Collections.emptyList())) {
+                    row[supertype.id >>> 6] |= 1L << supertype.id;
+                }
+            }
+        }
+        TYPES = types;
+        IDS = ids;
+        ASSIGNABLE = assignable;
+    }
+
+    /**
+     * Returns true if a value of the given type can be assigned to the target
+     * type, which is when the target is {@code Any} or its scope is the scope
+     * of the type or one of its parents (as {@code Comparable} is for {@code
+     * Integer}). Registered types are checked with a single bit test.
+     */
+    public static boolean isAssignable(Type target, Type type) {
+        long[][] assignable = ASSIGNABLE;
+        if (type.id >= 0 && type.id < assignable.length && target.id >= 0 && target.id < assignable.length) {
+            return (assignable[type.id][target.id >>> 6] & (1L << target.id)) != 0;
+        }
+        //Types which aren't registered (or not yet in the matrix) walk their scopes instead
+        if (target == Type.ANY) {
+            return true;
+        }
+        for (Scope scope = type.scope; scope != null; scope = scope.getParent()) {
+            if (scope == target.scope) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public static PlcObject create(Object value) {
@@ -52,6 +124,7 @@ public final class Environment {
         private final String name;
         private final String jvmName;
         private final Scope scope;
+        private int id = -1;
 
         public Type(String name, String jvmName, Scope scope) {
             this.name = name;
@@ -63,6 +136,14 @@ public final class Environment {
             return name;
         }
 
+        /**
+         * Returns the ID given to the type when it was registered, which are
+         * numbered from 0, or -1 if it is not registered.
+         */
+        public int getId() {
+            return id;
+        }
+
         public String getJvmName() {
             return jvmName;
         }
@@ -1,14 +1,28 @@
 package Main;
 
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 
 public final class Generator implements Ast.Visitor<Void> {
 
     private final PrintWriter writer;
+    private final Analysis analysis;
     private int indent = 0;
 
     public Generator(PrintWriter writer) {
+        this(writer, Analysis.NODES);
+    }
+
+    /**
+     * Creates a generator which reads the results of analysis from the given
+     * analysis rather than the nodes, see {@link Analyzer#Analyzer(Scope,
+     * Analysis)}.
+     */
+    public Generator(PrintWriter writer, Analysis analysis) {
         this.writer = writer;
+        this.analysis = analysis;
     }
 
     private void print(Object... objects) {
@@ -115,7 +129,7 @@ public final class Generator implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Stmt.Declaration ast) {
-        print(ast.getVariable().getType().getJvmName(), " ", ast.getVariable().getJvmName());
+        print(analysis.getVariable(ast).getType().getJvmName(), " ", analysis.getVariable(ast).getJvmName());
         if (ast.getValue().isPresent())
             print(" = ", ast.getValue().get());
         print(";");
@@ -207,13 +221,23 @@ public final class Generator implements Ast.Visitor<Void> {
         return null;
     }
 
+    /**
+     * Writes a statement which could not be parsed as a comment, so the
+     * error is visible in the generated code.
+     */
+    @Override
+    public Void visit(Ast.Stmt.Error ast) {
+        print("// Syntax error at ", ast.getIndex(), ": ", ast.getMessage());
+        return null;
+    }
+
     @Override
     public Void visit(Ast.Expr.Literal ast) {
-        if (ast.getType() == Environment.Type.STRING)
+        if (analysis.getType(ast) == Environment.Type.STRING)
         {
             print("\"", ast.getLiteral(), "\"");
         }
-        else if (ast.getType() == Environment.Type.CHARACTER)
+        else if (analysis.getType(ast) == Environment.Type.CHARACTER)
         {
             print("\'", ast.getLiteral(), "\'");
         }
@@ -224,25 +248,51 @@ public final class Generator implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Expr.Group ast) {
-        print("(");
-        visit(ast.getExpression());
-        print(")");
+        generateNested(ast);
         return null;
     }
 
     @Override
     public Void visit(Ast.Expr.Binary ast) {
-        visit(ast.getLeft());
-        if (ast.getOperator().equals("AND"))
-            print(" && ");
-        else if (ast.getOperator().equals("OR"))
-            print(" || ");
-        else
-            print(" ", ast.getOperator(), " ");
-        visit(ast.getRight());
+        generateNested(ast);
         return null;
     }
 
+    /**
+     * Generates nested groups and binary expressions from an explicit stack
+     * of the expressions and text still to be written, so deeply nested
+     * expressions don't overflow the stack. Other expressions are visited as
+     * usual.
+     */
+    private void generateNested(Ast.Expr ast) {
+        ArrayDeque<Object> stack = new ArrayDeque<>();
+        stack.push(ast);
+        while (!stack.isEmpty())
+        {
+            Object next = stack.pop();
+            if (next instanceof Ast.Expr.Group)
+            {
+                print("(");
+                stack.push(")");
+                stack.push(((Ast.Expr.Group) next).getExpression());
+            }
+            else if (next instanceof Ast.Expr.Binary)
+            {
+                Ast.Expr.Binary binary = (Ast.Expr.Binary) next;
+                stack.push(binary.getRight());
+                if (binary.getOperator().equals("AND"))
+                    stack.push(" && ");
+                else if (binary.getOperator().equals("OR"))
+                    stack.push(" || ");
+                else
+                    stack.push(" " + binary.getOperator() + " ");
+                stack.push(binary.getLeft());
+            }
+            else
+                print(next);
+        }
+    }
+
     @Override
     public Void visit(Ast.Expr.Access ast) {
         if (ast.getReceiver().isPresent())
@@ -250,7 +300,7 @@ public final class Generator implements Ast.Visitor<Void> {
             visit(ast.getReceiver().get());
             print(".");
         }
-        print(ast.getVariable().getJvmName());
+        print(analysis.getVariable(ast).getJvmName());
         return null;
     }
 
@@ -261,7 +311,7 @@ public final class Generator implements Ast.Visitor<Void> {
             visit(ast.getReceiver().get());
             print(".");
         }
-        print(ast.getFunction().getJvmName(), "(");
+        print(analysis.getFunction(ast).getJvmName(), "(");
         for (int i = 0; i < ast.getArguments().size(); i++)
         {
             if (i != 0)
@@ -272,5 +322,240 @@ public final class Generator implements Ast.Visitor<Void> {
         return null;
     }
 
+    /**
+     * Generates the analyzed source in the arena like {@link
+     * #visit(Ast.Source)}, walking the child and sibling columns and reading
+     * the type, variable or function of each node from the arena's side
+     * column, so no {@link Ast} nodes are created.
+     */
+    public void generate(AstArena arena) {
+        int root = arena.getRoot();
+        print("public class Main {");
+        newline(0);
+        newline(++indent);
+        int child = arena.getFirstChild(root);
+        for (int i = 0; child != AstArena.NONE && arena.getKind(child) == AstArena.Kind.FIELD; i++)
+        {
+            if (i != 0)
+                newline(indent);
+            generateField(arena, child);
+            child = arena.getNextSibling(child);
+        }
+        print("public static void main(String[] args) {");
+        newline(++indent);
+        print("System.exit(new Main().main());");
+        newline(--indent);
+        print("}");
+        for (; child != AstArena.NONE; child = arena.getNextSibling(child))
+        {
+            newline(0);
+            newline(indent);
+            generateMethod(arena, child);
+        }
+        newline(0);
+        newline(--indent);
+        print("}");
+    }
+
+    private void generateField(AstArena arena, int node) {
+        print(arena.getTypeName(node), " ", arena.getName(node));
+        if (arena.getFirstChild(node) != AstArena.NONE)
+        {
+            print(" = ");
+            generateExpression(arena, arena.getFirstChild(node));
+        }
+        print(";");
+    }
+
+    private void generateMethod(AstArena arena, int node) {
+        if (arena.getTypeName(node) != null)
+            print(Environment.getType(arena.getTypeName(node)).getJvmName(), " ");
+        else
+            print("void ");
+
+        print(arena.getName(node), "(");
+        for (int i = 0; i < arena.getParameterCount(node); i++)
+        {
+            if (i != 0)
+                print(", ");
+            print(Environment.getType(arena.getParameterTypeName(node, i)).getJvmName(),
+                    " ", arena.getParameter(node, i));
+        }
+        print(")");
+
+        print(" {");
+        generateBlock(arena, arena.getFirstChild(node));
+        print("}");
+    }
+
+    /**
+     * Generates the statements starting at the given node and continuing
+     * through its siblings, each on its own line, as for methods, if and while
+     * statements.
+     */
+    private void generateBlock(AstArena arena, int first) {
+        if (first != AstArena.NONE)
+        {
+            newline(++indent);
+            for (int child = first; child != AstArena.NONE; child = arena.getNextSibling(child))
+            {
+                if (child != first)
+                    newline(indent);
+                generateStatement(arena, child);
+            }
+            newline(--indent);
+        }
+    }
+
+    private void generateStatement(AstArena arena, int node) {
+        int first = arena.getFirstChild(node);
+        switch (arena.getKind(node))
+        {
+            case EXPRESSION:
+                generateExpression(arena, first);
+                print(";");
+                break;
+            case DECLARATION:
+                print(arena.getVariable(node).getType().getJvmName(), " ", arena.getVariable(node).getJvmName());
+                if (first != AstArena.NONE)
+                {
+                    print(" = ");
+                    generateExpression(arena, first);
+                }
+                print(";");
+                break;
+            case ASSIGNMENT:
+                generateExpression(arena, first);
+                print(" = ");
+                generateExpression(arena, arena.getNextSibling(first));
+                print(";");
+                break;
+            case IF:
+                int then = arena.getNextSibling(first);
+                int otherwise = arena.getNextSibling(then);
+                print("if (");
+                generateExpression(arena, first);
+                print(") {");
+                generateBlock(arena, arena.getFirstChild(then));
+                print("}");
+                if (arena.getFirstChild(otherwise) != AstArena.NONE)
+                {
+                    print(" else {");
+                    generateBlock(arena, arena.getFirstChild(otherwise));
+                    print("}");
+                }
+                break;
+            case FOR:
+                print("for (int ", arena.getName(node), " : ");
+                generateExpression(arena, first);
+                print(") {");
+                int block = arena.getNextSibling(first);
+                for (int child = arena.getFirstChild(block); child != AstArena.NONE; child = arena.getNextSibling(child))
+                {
+                    newline(++indent);
+                    if (child != arena.getFirstChild(block))
+                        newline(indent);
+                    generateStatement(arena, child);
+                    newline(--indent);
+                }
+                print("}");
+                break;
+            case WHILE:
+                print("while (");
+                generateExpression(arena, first);
+                print(") {");
+                generateBlock(arena, arena.getFirstChild(arena.getNextSibling(first)));
+                print("}");
+                break;
+            case RETURN:
+                print("return ");
+                generateExpression(arena, first);
+                print(";");
+                break;
+            case ERROR:
+                print("// Syntax error at ", arena.getIndex(node), ": ", arena.getMessage(node));
+                break;
+            default:
+                throw new IllegalArgumentException("A " + arena.getKind(node) + " node is not a statement.");
+        }
+    }
+
+    /**
+     * Generates an expression from an explicit stack of the nodes and text
+     * still to be written, as in {@link #generateNested(Ast.Expr)}.
+     */
+    private void generateExpression(AstArena arena, int node) {
+        ArrayDeque<Object> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty())
+        {
+            Object next = stack.pop();
+            if (next instanceof String)
+            {
+                print(next);
+                continue;
+            }
+            int expression = (Integer) next;
+            int first = arena.getFirstChild(expression);
+            switch (arena.getKind(expression))
+            {
+                case LITERAL:
+                    if (arena.getType(expression) == Environment.Type.STRING)
+                        print("\"", arena.getLiteral(expression), "\"");
+                    else if (arena.getType(expression) == Environment.Type.CHARACTER)
+                        print("\'", arena.getLiteral(expression), "\'");
+                    else
+                        print(arena.getLiteral(expression));
+                    break;
+                case GROUP:
+                    print("(");
+                    stack.push(")");
+                    stack.push(first);
+                    break;
+                case BINARY:
+                    stack.push(arena.getNextSibling(first));
+                    if (arena.getOperator(expression).equals("AND"))
+                        stack.push(" && ");
+                    else if (arena.getOperator(expression).equals("OR"))
+                        stack.push(" || ");
+                    else
+                        stack.push(" " + arena.getOperator(expression) + " ");
+                    stack.push(first);
+                    break;
+                case ACCESS:
+                    stack.push(arena.getVariable(expression).getJvmName());
+                    if (first != AstArena.NONE)
+                    {
+                        stack.push(".");
+                        stack.push(first);
+                    }
+                    break;
+                case FUNCTION:
+                    int receiver = arena.getReceiver(expression);
+                    List<Integer> arguments = new ArrayList<>();
+                    for (int child = receiver == AstArena.NONE ? first : arena.getNextSibling(receiver); child != AstArena.NONE; child = arena.getNextSibling(child))
+                    {
+                        arguments.add(child);
+                    }
+                    stack.push(")");
+                    for (int i = arguments.size() - 1; i >= 0; i--)
+                    {
+                        stack.push(arguments.get(i));
+                        if (i != 0)
+                            stack.push(", ");
+                    }
+                    stack.push(arena.getFunction(expression).getJvmName() + "(");
+                    if (receiver != AstArena.NONE)
+                    {
+                        stack.push(".");
+                        stack.push(receiver);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("A " + arena.getKind(expression) + " node is not an expression.");
+            }
+        }
+    }
+
 }
 
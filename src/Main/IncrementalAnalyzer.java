@@ -0,0 +1,172 @@
+package Main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Analyzes successive versions of a source, such as those produced by {@link
+ * Parser#reparse(Ast.Source, List, List, Edit)}, analyzing only the
+ * declarations affected by each change.
+ *
+ * While analyzing a declaration the analyzer records every name (and arity,
+ * for functions) it looks up, including built-ins and names which are not
+ * found, which forms a dependency graph between declarations. A declaration
+ * is identified by its name (and arity, for methods), and is unchanged if it
+ * is the same object as in the previous source, since reparsing reuses the
+ * objects of unchanged declarations. Changed, added and removed declarations
+ * are analyzed again, along with the declarations which looked up their name.
+ * A method whose parameter and return types did not change keeps its function,
+ * so only a change to its signature affects the methods calling it, while a
+ * field analyzed again affects its dependents transitively. Every other
+ * declaration keeps the types, variables and functions set by the previous
+ * analysis, and its variable or function is defined again as the same object
+ * so references to it stay valid.
+ *
+ * Like {@link Analyzer#analyzeParallel(Ast.Source)}, fields and method
+ * signatures are defined before any method body is analyzed, and each body is
+ * analyzed in its own child scope. After a failed analysis the next source is
+ * analyzed in full.
+ */
+public final class IncrementalAnalyzer {
+
+    private final Scope builtins;
+    private Scope scope = null;
+    private Map<String, Ast> declarations = new HashMap<>();
+    private Map<String, Set<String>> dependencies = new HashMap<>();
+    private int analyzed = 0;
+
+    public IncrementalAnalyzer(Scope parent) {
+        this.builtins = new Analyzer(parent).getScope();
+    }
+
+    /**
+     * Returns the scope of the fields and methods of the last source analyzed.
+     */
+    public Scope getScope() {
+        return scope;
+    }
+
+    /**
+     * Returns the number of fields and methods analyzed by the last call to
+     * {@link #analyze(Ast.Source)}.
+     */
+    public int getAnalyzedCount() {
+        return analyzed;
+    }
+
+    public void analyze(Ast.Source ast) {
+        Map<String, Ast> declarations = new HashMap<>();
+        for (Ast.Field field : ast.getFields()) {
+            declarations.put(field.getName(), field);
+        }
+        for (Ast.Method method : ast.getMethods()) {
+            declarations.put(key(method), method);
+        }
+        Set<String> dirty = dirty(declarations);
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        analyzed = 0;
+        try {
+            Analyzer analyzer = new Analyzer(builtins, false);
+            for (Ast.Field field : ast.getFields()) {
+                if (dirty.contains(field.getName())) {
+                    analyzer.references = new HashSet<>();
+                    analyzer.visit(field);
+                    dependencies.put(field.getName(), analyzer.references);
+                    analyzer.references = null;
+                    analyzed++;
+                } else {
+                    analyzer.getScope().defineVariable(field.getVariable());
+                    dependencies.put(field.getName(), this.dependencies.get(field.getName()));
+                }
+            }
+            for (Ast.Method method : ast.getMethods()) {
+                Ast previous = this.declarations.get(key(method));
+                if (!dirty.contains(key(method))) {
+                    analyzer.getScope().defineFunction(method.getFunction());
+                } else if (previous instanceof Ast.Method && isSameSignature((Ast.Method) previous, method)) {
+                    method.setFunction(((Ast.Method) previous).getFunction());
+                    analyzer.getScope().defineFunction(method.getFunction());
+                } else {
+                    analyzer.defineMethod(method);
+                }
+            }
+            for (Ast.Method method : ast.getMethods()) {
+                if (dirty.contains(key(method))) {
+                    Analyzer body = new Analyzer(analyzer.getScope(), false);
+                    body.references = new HashSet<>();
+                    body.analyzeBody(method);
+                    dependencies.put(key(method), body.references);
+                    analyzed++;
+                } else {
+                    dependencies.put(key(method), this.dependencies.get(key(method)));
+                }
+            }
+            analyzer.requireMain();
+            this.scope = analyzer.getScope();
+            this.declarations = declarations;
+            this.dependencies = dependencies;
+        } catch (RuntimeException e) {
+            this.declarations = new HashMap<>();
+            this.dependencies = new HashMap<>();
+            throw e;
+        }
+    }
+
+    private static String key(Ast.Method method) {
+        return method.getName() + "/" + method.getParameters().size();
+    }
+
+    private static boolean isSameSignature(Ast.Method previous, Ast.Method method) {
+        return previous.getParameterTypeNames().equals(method.getParameterTypeNames()) &&
+                previous.getReturnTypeName().equals(method.getReturnTypeName());
+    }
+
+    /**
+     * Returns the declarations which must be analyzed again: those which are
+     * not the same object as before, those which were removed, and the
+     * dependents of those whose variable or function is not kept, which are
+     * fields, removed declarations and methods whose signature changed.
+     */
+    private Set<String> dirty(Map<String, Ast> declarations) {
+        Set<String> dirty = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        for (Map.Entry<String, Ast> entry : declarations.entrySet()) {
+            Ast previous = this.declarations.get(entry.getKey());
+            if (previous != entry.getValue()) {
+                dirty.add(entry.getKey());
+                if (!(previous instanceof Ast.Method && isSameSignature((Ast.Method) previous, (Ast.Method) entry.getValue()))) {
+                    pending.push(entry.getKey());
+                }
+            }
+        }
+        for (String key : this.declarations.keySet()) {
+            if (!declarations.containsKey(key)) {
+                dirty.add(key);
+                pending.push(key);
+            }
+        }
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : this.dependencies.entrySet()) {
+            for (String dependency : entry.getValue()) {
+                dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        while (!pending.isEmpty()) {
+            for (String dependent : dependents.getOrDefault(pending.pop(), Collections.emptyList())) {
+                //Methods analyzed again keep their function, so only fields affect their dependents
+                if (dirty.add(dependent) && this.declarations.get(dependent) instanceof Ast.Field) {
+                    pending.push(dependent);
+                }
+            }
+        }
+        return dirty;
+    }
+
+}
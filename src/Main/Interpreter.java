@@ -4,6 +4,7 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -92,6 +93,11 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         throw new UnsupportedOperationException(); //TODO
     }
 
+    @Override
+    public Environment.PlcObject visit(Ast.Stmt.Error ast) {
+        throw new RuntimeException("Syntax error at " + ast.getIndex() + ": " + ast.getMessage());
+    }
+
     @Override
     public Environment.PlcObject visit(Ast.Expr.Literal ast) {
         if (ast.getLiteral() == null)
@@ -103,34 +109,100 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Expr.Group ast) {
-        return visit(ast.getExpression());
+        return evaluateNested(ast);
     }
 
     @Override
     public Environment.PlcObject visit(Ast.Expr.Binary ast) {
-        Environment.PlcObject left = visit(ast.getLeft());
+        return evaluateNested(ast);
+    }
 
+    /**
+     * Evaluates nested groups and binary expressions with an explicit stack
+     * of the binary expressions waiting for an operand, so deeply nested
+     * expressions don't overflow the stack. Other expressions are visited as
+     * usual.
+     */
+    private Environment.PlcObject evaluateNested(Ast.Expr ast) {
+        List<Ast.Expr.Binary> binaries = new ArrayList<>();
+        //The value of the left operand of each binary expression, once known
+        List<Environment.PlcObject> lefts = new ArrayList<>();
+        BitSet right = new BitSet();
+        Ast.Expr expr = ast;
+        while (true)
+        {
+            while (expr instanceof Ast.Expr.Group || expr instanceof Ast.Expr.Binary)
+            {
+                if (expr instanceof Ast.Expr.Group)
+                {
+                    expr = ((Ast.Expr.Group) expr).getExpression();
+                }
+                else
+                {
+                    binaries.add((Ast.Expr.Binary) expr);
+                    lefts.add(null);
+                    expr = ((Ast.Expr.Binary) expr).getLeft();
+                }
+            }
+            Environment.PlcObject value = visit(expr);
+            while (true)
+            {
+                int top = binaries.size() - 1;
+                if (top < 0)
+                {
+                    return value;
+                }
+                if (!right.get(top))
+                {
+                    Environment.PlcObject result = shortCircuit(binaries.get(top), value);
+                    if (result == null)
+                    {
+                        lefts.set(top, value);
+                        right.set(top);
+                        expr = binaries.get(top).getRight();
+                        break;
+                    }
+                    value = result;
+                }
+                else
+                {
+                    value = evaluateBinary(binaries.get(top), lefts.get(top), value);
+                    right.clear(top);
+                }
+                binaries.remove(top);
+                lefts.remove(top);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of an {@code AND} or {@code OR} expression decided by
+     * its left operand alone, or null if the right operand is needed.
+     */
+    private Environment.PlcObject shortCircuit(Ast.Expr.Binary ast, Environment.PlcObject left) {
         switch (ast.getOperator()) {
             case "AND":
                 if (!requireType(Boolean.class, left))
                     return Environment.create(left.getValue());
-                else
-                {
-                    Environment.PlcObject right = visit(ast.getRight());
-                    requireType(Boolean.class, right);
-                    return Environment.create(right.getValue());
-                }
+                return null;
             case "OR":
                 if (requireType(Boolean.class, left))
                     return Environment.create(left.getValue());
-                else
-                {
-                    Environment.PlcObject right = visit(ast.getRight());
-                    requireType(Boolean.class, right);
-                    return Environment.create(right.getValue());
-                }
+                return null;
+        }
+        return null;
+    }
+
+    /**
+     * Evaluates a binary expression given the values of both operands.
+     */
+    private Environment.PlcObject evaluateBinary(Ast.Expr.Binary ast, Environment.PlcObject left, Environment.PlcObject right) {
+        switch (ast.getOperator()) {
+            case "AND":
+            case "OR":
+                requireType(Boolean.class, right);
+                return Environment.create(right.getValue());
             case "<":
-                Environment.PlcObject right = visit(ast.getRight());
                 int i = requireType(Comparable.class, left).compareTo(requireType(left.getValue().getClass(), right));
                 if (i < 0)
                 {
@@ -139,7 +211,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                 else
                     return Environment.create(Boolean.FALSE);
             case "<=":
-                right = visit(ast.getRight());
                 i = requireType(Comparable.class, left).compareTo(requireType(left.getValue().getClass(), right));
                 requireType(left.getClass(), right);
                 if (i < 0 || i == 0)
@@ -149,7 +220,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                 else
                     return Environment.create(Boolean.FALSE);
             case ">":
-                right = visit(ast.getRight());
                 i = requireType(Comparable.class, left).compareTo(requireType(left.getValue().getClass(), right));
                 if (i > 0)
                 {
@@ -158,7 +228,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                 else
                     return Environment.create(Boolean.FALSE);
             case ">=":
-                right = visit(ast.getRight());
                 i = requireType(Comparable.class, left).compareTo(requireType(left.getValue().getClass(), right));
                 if (i > 0 || i == 0)
                 {
@@ -167,13 +236,11 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                 else
                     return Environment.create(Boolean.FALSE);
             case "==":
-                right = visit(ast.getRight());
                 if (left.getValue().equals(right.getValue()))
                     return Environment.create(Boolean.TRUE);
                 else
                     return Environment.create(Boolean.FALSE);
             case "+":
-                right = visit(ast.getRight());
                 if (left.getValue().getClass() == String.class || right.getValue().getClass() == String.class)
                 {
                     String buffer = left.getValue().toString() + right.getValue().toString();
@@ -190,7 +257,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                     return Environment.create(buffer);
                 }
             case "-":
-                right = visit(ast.getRight());
                 if (left.getValue().getClass() == BigInteger.class)
                 {
                     BigInteger buffer = requireType(BigInteger.class, left).subtract(requireType(BigInteger.class, right));
@@ -202,7 +268,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                     return Environment.create(buffer);
                 }
             case "*":
-                right = visit(ast.getRight());
                 if (left.getValue().getClass() == BigInteger.class)
                 {
                     BigInteger buffer = requireType(BigInteger.class, left).multiply(requireType(BigInteger.class, right));
@@ -214,7 +279,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                     return Environment.create(buffer);
                 }
             case "/":
-                right = visit(ast.getRight());
                 if (left.getValue().getClass() == BigInteger.class)
                 {
                     BigInteger buffer = requireType(BigInteger.class, left).divide(requireType(BigInteger.class, right));
@@ -1,7 +1,24 @@
 package Main;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The lexer works through three main functions:
@@ -10,6 +27,10 @@ import java.util.List;
  *  - {@link #lexToken()}, which lexes the next token
  *  - {@link CharStream}, which manages the state of the lexer and literals
  *
+ * Large inputs can also be lexed lazily from a {@link Reader} using {@link
+ * #tokens()} or {@link #stream()}, which only keep a bounded window of the
+ * input in memory and produce tokens as the parser asks for them.
+ *
  * If the lexer fails to parse something (such as an unterminated string) you
  * should throw a {@link ParseException} with an index at the character which is
  * invalid or missing.
@@ -19,12 +40,114 @@ import java.util.List;
  */
 public final class Lexer {
 
+    /**
+     * Character classes used by the lex methods, one bit per class. Each class
+     * corresponds to a regex the lexer used to match against, e.g. {@link
+     * #IDENTIFIER} is {@code [A-Za-z0-9_-]} and {@link #STRING_BODY} is
+     * {@code [^"\n\r]}.
+     */
+    private static final int
+            WHITESPACE = 1,
+            LETTER = 1 << 1,
+            DIGIT = 1 << 2,
+            SIGN = 1 << 3,
+            DOT = 1 << 4,
+            IDENTIFIER = 1 << 5,
+            DOUBLE_QUOTE = 1 << 6,
+            SINGLE_QUOTE = 1 << 7,
+            BACKSLASH = 1 << 8,
+            ESCAPE = 1 << 9,
+            STRING_BODY = 1 << 10,
+            CHARACTER_BODY = 1 << 11,
+            CHARACTER_TAIL = 1 << 12,
+            COMPARISON = 1 << 13,
+            EQUALS = 1 << 14,
+            NOT_LINE_TERMINATOR = 1 << 15;
+
+    /**
+     * The class bits of every ASCII character, see {@link #classify(char)} for
+     * characters outside of this table.
+     */
+    private static final int[] CLASSES = new int[128];
+
+    static {
+        for (char c = 0; c < CLASSES.length; c++)
+        {
+            int classes = STRING_BODY | CHARACTER_BODY | CHARACTER_TAIL | NOT_LINE_TERMINATOR;
+            if (" \b\n\r\t".indexOf(c) >= 0)
+                classes |= WHITESPACE;
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z'))
+                classes |= LETTER | IDENTIFIER;
+            if (c >= '0' && c <= '9')
+                classes |= DIGIT | IDENTIFIER;
+            if (c == '_' || c == '-')
+                classes |= IDENTIFIER;
+            if (c == '+' || c == '-')
+                classes |= SIGN;
+            if (c == '.')
+                classes |= DOT;
+            if (c == '"')
+                classes |= DOUBLE_QUOTE;
+            if (c == '\'')
+                classes |= SINGLE_QUOTE;
+            if (c == '\\')
+                classes |= BACKSLASH;
+            if ("bnrt'\"\\".indexOf(c) >= 0)
+                classes |= ESCAPE;
+            if (c == '"' || c == '\n' || c == '\r')
+                classes &= ~(STRING_BODY | CHARACTER_BODY | CHARACTER_TAIL);
+            if (c == '\\')
+                classes &= ~(CHARACTER_BODY | CHARACTER_TAIL);
+            if (c == '\'')
+                classes &= ~CHARACTER_TAIL;
+            if ("<>!=".indexOf(c) >= 0)
+                classes |= COMPARISON;
+            if (c == '=')
+                classes |= EQUALS;
+            if (c == '\n' || c == '\r')
+                classes &= ~NOT_LINE_TERMINATOR;
+            CLASSES[c] = classes;
+        }
+    }
+
+    /**
+     * The smallest number of characters given to a single task by {@link
+     * #lexParallel(ForkJoinPool)}, below which the input is lexed in one task.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * The exclusive limit on the digits of a number accumulated while lexing.
+     */
+    private static final long MAX_MANTISSA = 100_000_000_000_000_000L;
+
     private final CharStream chars;
 
     public Lexer(String input) {
         chars = new CharStream(input);
     }
 
+    /**
+     * Creates a lexer over any character sequence, such as a memory mapped
+     * file from {@link MappedSource#map(java.nio.file.Path)}. Token literals
+     * are sliced from the sequence as each token is emitted.
+     */
+    public Lexer(CharSequence input) {
+        chars = new CharStream(input);
+    }
+
+    private Lexer(CharSequence input, int start, int end) {
+        chars = new CharStream(input, start, end);
+    }
+
+    public Lexer(Reader reader) {
+        chars = new CharStream(reader);
+    }
+
+    public Lexer(ReadableByteChannel channel, Charset charset) {
+        this(Channels.newReader(channel, charset.newDecoder(), -1));
+    }
+
     /**
      * Repeatedly lexes the input using {@link #lexToken()}, also skipping over
      * whitespace where appropriate.
@@ -33,7 +156,7 @@ public final class Lexer {
         List<Token> tokens = new ArrayList<Token>();
         while (chars.has(0))
         {
-            if (peek("[ \b\n\r\t]"))
+            if (is(0, WHITESPACE))
             {
                 chars.advance();
                 chars.skip();
@@ -46,6 +169,206 @@ public final class Lexer {
         return tokens;
     }
 
+    /**
+     * Lexes the input in parallel on the common {@link ForkJoinPool}, see
+     * {@link #lexParallel(ForkJoinPool)}.
+     */
+    public List<Token> lexParallel() {
+        return lexParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Lexes the input in parallel, producing exactly the same tokens (and
+     * exceptions) as {@link #lex()}.
+     *
+     * The input is split into chunks immediately after line terminators. No
+     * token can contain a {@code '\n'} or {@code '\r'} (strings and characters
+     * end at them and operators never include them), so the lexer is always
+     * between tokens after one and each chunk can be lexed independently with
+     * absolute indices. If several chunks are invalid, the exception of the
+     * first is thrown as it would be by {@link #lex()}.
+     */
+    public List<Token> lexParallel(ForkJoinPool pool) {
+        if (chars.input == null)
+        {
+            throw new IllegalStateException("Parallel lexing requires the whole input, not a reader.");
+        }
+        CharSequence input = chars.input;
+        int size = Math.max(PARALLEL_CHUNK_SIZE, (chars.limit - chars.index) / (pool.getParallelism() * 4));
+        List<ForkJoinTask<List<Token>>> chunks = new ArrayList<>();
+        int start = chars.index;
+        while (start < chars.limit)
+        {
+            int end = Math.min(start + size, chars.limit);
+            while (end < chars.limit && input.charAt(end - 1) != '\n' && input.charAt(end - 1) != '\r')
+            {
+                end++;
+            }
+            int from = start, to = end;
+            chunks.add(pool.submit(() -> new Lexer(input, from, to).lex()));
+            start = end;
+        }
+        chars.index = chars.limit;
+        chars.skip();
+        List<Token> tokens = new ArrayList<>();
+        for (ForkJoinTask<List<Token>> chunk : chunks)
+        {
+            tokens.addAll(chunk.join());
+        }
+        return tokens;
+    }
+
+    /**
+     * Updates the tokens of {@code source} after an edit, returning the same
+     * tokens as lexing the edited source from scratch.
+     *
+     * As in {@link #lexParallel(ForkJoinPool)}, the lexer is always between
+     * tokens after a line terminator. Only the text from the start of the line
+     * containing the edit up to the first line terminator after it is lexed
+     * again. Tokens before that are reused, and tokens after it are the old
+     * tokens moved by {@link Edit#getDelta()} as they are read, so the cost of
+     * an edit does not depend on how much source follows it. Successive edits
+     * are spliced into a single table of slices of the original and relexed
+     * tokens, so reading a token is one lookup however many edits were made.
+     */
+    public static List<Token> relex(String source, List<Token> tokens, Edit edit) {
+        String edited = edit.apply(source);
+        int start = edit.getOffset();
+        while (start > 0 && source.charAt(start - 1) != '\n' && source.charAt(start - 1) != '\r')
+        {
+            start--;
+        }
+        int end = edit.getOffset() + edit.getInserted().length();
+        while (end < edited.length() && edited.charAt(end) != '\n' && edited.charAt(end) != '\r')
+        {
+            end++;
+        }
+        end = Math.min(end + 1, edited.length());
+        Relexed pieces = tokens instanceof Relexed ? (Relexed) tokens : new Relexed(tokens);
+        int before = search(pieces, start);
+        int after = search(pieces, end - edit.getDelta());
+        List<Token> relexed = new Lexer(edited, start, end).lex();
+        return pieces.splice(before, relexed, after, edit.getDelta());
+    }
+
+    /**
+     * Returns the position of the first token at or after the given index.
+     */
+    private static int search(Relexed tokens, int index) {
+        int low = 0;
+        int high = tokens.size();
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (tokens.getIndex(middle) < index)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the value of the string or character literal in {@code [start,
+     * end)} of the given characters, without the surrounding quotes and with
+     * escapes replaced in a single pass. If the lexer found no escapes, the
+     * value is sliced directly from the characters.
+     */
+    public static String decode(CharSequence chars, int start, int end, boolean escaped) {
+        int first = start + 1;
+        int last = end - start >= 2 && chars.charAt(end - 1) == chars.charAt(start) ? end - 1 : end;
+        if (!escaped)
+        {
+            return chars.subSequence(first, last).toString();
+        }
+        StringBuilder builder = new StringBuilder(last - first);
+        for (int i = first; i < last; i++)
+        {
+            char c = chars.charAt(i);
+            if (c == '\\' && i + 1 < last)
+            {
+                c = chars.charAt(++i);
+                switch (c)
+                {
+                    case 'b': c = '\b'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                }
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns an iterator lexing one token at a time, skipping whitespace in
+     * the same way as {@link #lex()}. Unlike {@link #lex()}, no list of tokens
+     * is built, so a streaming lexer uses constant memory regardless of the
+     * size of the input. Any {@link ParseException} is thrown from {@link
+     * Iterator#next()} when the invalid token is reached.
+     */
+    public Iterator<Token> tokens() {
+        return new Iterator<Token>() {
+
+            @Override
+            public boolean hasNext() {
+                while (is(0, WHITESPACE))
+                {
+                    chars.advance();
+                    chars.skip();
+                }
+                return chars.has(0);
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return lexToken();
+            }
+
+        };
+    }
+
+    /**
+     * Returns the tokens of {@link #tokens()} as a sequential stream.
+     */
+    public Stream<Token> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(tokens(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Lexes the input in the same way as {@link #lex()}, but stores the tokens
+     * in a compact {@link TokenBuffer} of offsets into the input instead of
+     * creating a {@link Token} and literal for every token. This requires the
+     * whole input to be available, so it cannot be used with a {@link Reader}.
+     */
+    public TokenBuffer lexBuffer() {
+        if (chars.input == null)
+        {
+            throw new IllegalStateException("A token buffer requires the whole input, not a reader.");
+        }
+        TokenBuffer tokens = new TokenBuffer(chars.input);
+        while (chars.has(0))
+        {
+            if (is(0, WHITESPACE))
+            {
+                chars.advance();
+                chars.skip();
+            }
+            else
+            {
+                Token.Type type = scanToken();
+                tokens.add(type, chars.index - chars.length, chars.length, chars.escaped, chars.number);
+                chars.skip();
+            }
+        }
+        return tokens;
+    }
+
     /**
      * This method determines the type of the next token, delegating to the
      * appropriate lex method. As such, it is best for this method to not change
@@ -55,118 +378,225 @@ public final class Lexer {
      * by {@link #lex()}
      */
     public Token lexToken() {
-        if (peek("[A-Za-z]"))
+        return chars.emit(scanToken());
+    }
+
+    public Token lexIdentifier() {
+        return chars.emit(scanIdentifier());
+    }
+
+    public Token lexNumber() {
+        return chars.emit(scanNumber());
+    }
+
+    public Token lexCharacter() {
+        return chars.emit(scanCharacter());
+    }
+
+    public Token lexString() {
+        return chars.emit(scanString());
+    }
+
+    public Token lexOperator() {
+        return chars.emit(scanOperator());
+    }
+
+    /**
+     * The scan methods below advance the char stream over a single token and
+     * return its type without creating a {@link Token}, which is left to the
+     * caller (either {@link CharStream#emit(Token.Type)} or a {@link
+     * TokenBuffer}).
+     */
+    private Token.Type scanToken() {
+        if (is(0, LETTER))
         {
-            return lexIdentifier();
+            return scanIdentifier();
         }
-        else if (peek("\""))
+        else if (is(0, DOUBLE_QUOTE))
         {
-            return lexString();
+            return scanString();
         }
-        else if (peek("'"))
+        else if (is(0, SINGLE_QUOTE))
         {
-            return lexCharacter();
+            return scanCharacter();
         }
-        else if (peek("[+-]","[0-9]") || peek("[0-9]"))
+        else if ((is(0, SIGN) && is(1, DIGIT)) || is(0, DIGIT))
         {
-            return lexNumber();
+            return scanNumber();
         }
         else
         {
-            return lexOperator();
+            return scanOperator();
         }
     }
 
-    public Token lexIdentifier() {
-        while(chars.has(0) && peek("[A-Za-z0-9_-]"))
+    private Token.Type scanIdentifier() {
+        while (is(0, IDENTIFIER))
         {
-            match("[A-Za-z0-9_-]");
+            chars.advance();
         }
-        return chars.emit(Token.Type.IDENTIFIER);
+        return Token.Type.IDENTIFIER;
     }
 
-    public Token lexNumber() {
-        match("[+-]|[0-9]");
-        while (chars.has(0) && peek("[0-9]|\\."))
+    private Token.Type scanNumber() {
+        boolean negative = is(0, SIGN) && chars.get(0) == '-';
+        accept(SIGN);
+        long mantissa = 0;
+        while (is(0, DIGIT | DOT))
         {
-            if (peek("\\."))
+            if (is(0, DOT))
             {
-                if (match("\\.", "[0-9]"))
+                if (is(1, DIGIT))
                 {
-                    while(chars.has(0) && peek("[0-9]"))
+                    chars.advance();
+                    int scale = 0;
+                    while (is(0, DIGIT))
                     {
-                        match("[0-9]");
+                        mantissa = lexDigit(mantissa);
+                        scale++;
                     }
-                    return chars.emit(Token.Type.DECIMAL);
+                    if (mantissa >= 0 && scale < 32)
+                        chars.number = ((negative ? -mantissa : mantissa) << 5) | scale;
+                    return Token.Type.DECIMAL;
                 }
                 else
-                    return chars.emit(Token.Type.INTEGER);
+                    break;
             }
             else
-                match("[0-9]");
+                mantissa = lexDigit(mantissa);
         }
-        return chars.emit(Token.Type.INTEGER);
+        if (mantissa >= 0)
+            chars.number = negative ? -mantissa : mantissa;
+        return Token.Type.INTEGER;
     }
 
-    public Token lexCharacter() {
-        match("'");
-        if (peek("\\\\"))
+    /**
+     * Advances over a digit, returning the value of the digits so far or -1
+     * once there are too many digits to be accumulated exactly. The value is
+     * kept under 10^17 so a decimal's digits can be packed with its scale, see
+     * {@link Token#getNumber()}.
+     */
+    private long lexDigit(long mantissa) {
+        int digit = chars.get(0) - '0';
+        chars.advance();
+        if (mantissa < 0 || mantissa >= MAX_MANTISSA / 10)
+        {
+            return -1;
+        }
+        return mantissa * 10 + digit;
+    }
+
+    private Token.Type scanCharacter() {
+        accept(SINGLE_QUOTE);
+        if (is(0, BACKSLASH))
         {
-            match("\\\\","[bnrt'\"\\\\]");
+            if (is(1, ESCAPE))
+            {
+                lexEscape();
+            }
         }
-        else if (peek("'"))
+        else if (is(0, SINGLE_QUOTE))
         {
             chars.advance();
             throw new ParseException("Empty character", chars.index);
         }
-        else if (peek("[^\"\n\r\\\\]","[^'\"\n\r\\\\]"))
+        else if (is(0, CHARACTER_BODY) && is(1, CHARACTER_TAIL))
         {
             chars.advance();
             throw new ParseException("Too many characters", chars.index);
         }
         else
-            match("[^\"\n\r\\\\]");
-        match("'");
-        return chars.emit(Token.Type.CHARACTER);
+            accept(CHARACTER_BODY);
+        accept(SINGLE_QUOTE);
+        return Token.Type.CHARACTER;
     }
 
-    public Token lexString() {
-        match("\"");
+    private Token.Type scanString() {
+        accept(DOUBLE_QUOTE);
         //iterate through entire string except last character
-        while(chars.has(1) && peek("[^\"\n\r]"))
+        while (chars.has(1) && is(0, STRING_BODY))
         {
             //if you find a backslash
-            if (peek("\\\\"))
+            if (is(0, BACKSLASH))
             {
                 //if it doesn't match a valid escape throw an exception
-                if (!match("\\\\","[bnrt'\"\\\\]"))
+                if (!is(1, ESCAPE))
                 {
                     chars.advance();
                     throw new ParseException("Invalid exception", chars.index);
                 }
+                lexEscape();
             }
-            //otherwise match
             else
-                match("[^\"\n\r]");
+                chars.advance();
         }
         //if the final character is NOT the "\"" throw exception
-        if (!match("\""))
+        if (!accept(DOUBLE_QUOTE))
         {
             chars.advance();
             throw new ParseException("Unterminated string", chars.index);
         }
         //otherwise return the token
-        return chars.emit(Token.Type.STRING);
+        return Token.Type.STRING;
     }
     /**
-    public void lexEscape() {
-        throw new UnsupportedOperationException();
+     * Advances over a valid escape, recording that the current literal has
+     * escapes which {@link #decode(CharSequence, int, int, boolean)} needs to
+     * replace.
+     */
+    private void lexEscape() {
+        chars.advance();
+        chars.advance();
+        chars.escaped = true;
     }
-    */
-    public Token lexOperator() {
-        match("[<>!=]", "[=]?");
-        match(".");
-        return chars.emit(Token.Type.OPERATOR);
+
+    private Token.Type scanOperator() {
+        if (is(0, COMPARISON) && is(1, EQUALS))
+        {
+            chars.advance();
+            chars.advance();
+        }
+        else
+            accept(NOT_LINE_TERMINATOR);
+        return Token.Type.OPERATOR;
+    }
+
+    /**
+     * Returns true if the character at the given offset exists and belongs to
+     * any of the character classes in the mask. This is the table-driven
+     * equivalent of a single-character {@link #peek(String...)} and does not
+     * allocate or touch {@code java.util.regex}.
+     */
+    private boolean is(int offset, int mask) {
+        return chars.has(offset) && (classify(chars.get(offset)) & mask) != 0;
+    }
+
+    /**
+     * Advances past the next character if it belongs to the mask, the table
+     * driven equivalent of a single-character {@link #match(String...)}.
+     */
+    private boolean accept(int mask) {
+        boolean is = is(0, mask);
+        if (is)
+        {
+            chars.advance();
+        }
+        return is;
+    }
+
+    private static int classify(char c) {
+        if (c < CLASSES.length)
+        {
+            return CLASSES[c];
+        }
+        //a regex '.' excludes these line terminators, everything else outside
+        //of ASCII is only matched by the negated classes
+        else if (c == (char) 0x85 || c == (char) 0x2028 || c == (char) 0x2029)
+        {
+            return STRING_BODY | CHARACTER_BODY | CHARACTER_TAIL;
+        }
+        else
+            return STRING_BODY | CHARACTER_BODY | CHARACTER_TAIL | NOT_LINE_TERMINATOR;
     }
 
     /**
@@ -202,6 +632,108 @@ public final class Lexer {
         return peek;
     }
 
+    /**
+     * The tokens returned by {@link #relex(String, List, Edit)}, as a table of
+     * pieces which are each a slice of the original or relexed tokens moved by
+     * the total delta of the edits before them. Editing splices the table, so
+     * it only grows by the pieces of the edit and tokens are read from their
+     * own list without going through the earlier versions.
+     */
+    private static final class Relexed extends AbstractList<Token> implements RandomAccess {
+
+        private final List<List<Token>> sources;
+        private final int[] starts;
+        private final int[] offsets;
+        private final int[] deltas;
+        private int pieces = 0;
+
+        private Relexed(List<Token> tokens) {
+            this(1);
+            add(tokens, 0, 0, tokens.size());
+        }
+
+        private Relexed(int capacity) {
+            this.sources = new ArrayList<>(capacity);
+            this.starts = new int[capacity + 1];
+            this.offsets = new int[capacity];
+            this.deltas = new int[capacity];
+        }
+
+        /**
+         * Returns these tokens with those in {@code [before, after)} replaced
+         * by the relexed tokens and those after them moved by the delta.
+         */
+        private Relexed splice(int before, List<Token> relexed, int after, int delta) {
+            Relexed spliced = new Relexed(pieces + 2);
+            for (int i = 0; i < pieces && starts[i] < before; i++)
+            {
+                spliced.add(sources.get(i), offsets[i], deltas[i], Math.min(starts[i + 1], before) - starts[i]);
+            }
+            spliced.add(relexed, 0, 0, relexed.size());
+            for (int i = 0; i < pieces; i++)
+            {
+                if (starts[i + 1] > after)
+                {
+                    int from = Math.max(starts[i], after);
+                    spliced.add(sources.get(i), offsets[i] + from - starts[i], deltas[i] + delta, starts[i + 1] - from);
+                }
+            }
+            return spliced;
+        }
+
+        /**
+         * Appends a slice of a list, merging it with the last piece if it
+         * continues it.
+         */
+        private void add(List<Token> source, int offset, int delta, int length) {
+            if (length == 0)
+            {
+                return;
+            }
+            int last = pieces - 1;
+            if (last >= 0 && sources.get(last) == source && deltas[last] == delta && offsets[last] + starts[pieces] - starts[last] == offset)
+            {
+                starts[pieces] += length;
+                return;
+            }
+            sources.add(source);
+            offsets[pieces] = offset;
+            deltas[pieces] = delta;
+            starts[pieces + 1] = starts[pieces] + length;
+            pieces++;
+        }
+
+        private int piece(int index) {
+            if (index < 0 || index >= size())
+            {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size() + ".");
+            }
+            int piece = Arrays.binarySearch(starts, 0, pieces + 1, index);
+            return piece >= 0 ? piece : -piece - 2;
+        }
+
+        /**
+         * Returns the index of the token at the given position without
+         * creating the moved token.
+         */
+        private int getIndex(int index) {
+            int piece = piece(index);
+            return sources.get(piece).get(offsets[piece] + index - starts[piece]).getIndex() + deltas[piece];
+        }
+
+        @Override
+        public Token get(int index) {
+            int piece = piece(index);
+            return sources.get(piece).get(offsets[piece] + index - starts[piece]).moved(deltas[piece]);
+        }
+
+        @Override
+        public int size() {
+            return starts[pieces];
+        }
+
+    }
+
     /**
      * A helper class maintaining the input string, current index of the char
      * stream, and the current length of the token being matched.
@@ -209,23 +741,66 @@ public final class Lexer {
      * You should rely on peek/match for state management in nearly all cases.
      * The only field you need to access is {@link #index} for any {@link
      * ParseException} which is thrown.
+     *
+     * When reading from a {@link Reader}, only a window of the input starting
+     * at the current token is buffered. The window is compacted as tokens are
+     * emitted and only grows if a single token is longer than the buffer.
      */
     public static final class CharStream {
 
-        private final String input;
+        private static final int BUFFER_SIZE = 8192;
+
+        private final CharSequence input;
+        private final int limit;
+        private final Reader reader;
+        private char[] buffer;
+        private int start = 0;
+        private int end = 0;
         private int index = 0;
         private int length = 0;
+        private boolean escaped = false;
+        private long number = Token.NO_NUMBER;
 
         public CharStream(String input) {
+            this((CharSequence) input);
+        }
+
+        public CharStream(CharSequence input) {
+            this(input, 0, input.length());
+        }
+
+        /**
+         * Creates a char stream over the range {@code [start, end)} of the
+         * input. Indices remain relative to the start of the whole input.
+         */
+        public CharStream(CharSequence input, int start, int end) {
             this.input = input;
+            this.limit = end;
+            this.reader = null;
+            this.index = start;
+        }
+
+        public CharStream(Reader reader) {
+            this.input = null;
+            this.limit = -1;
+            this.reader = reader;
+            this.buffer = new char[BUFFER_SIZE];
         }
 
         public boolean has(int offset) {
-            return index + offset < input.length();
+            if (reader == null)
+            {
+                return index + offset < limit;
+            }
+            return index + offset < end || fill(index + offset);
         }
 
         public char get(int offset) {
-            return input.charAt(index + offset);
+            if (reader == null)
+            {
+                return input.charAt(index + offset);
+            }
+            return buffer[index + offset - start];
         }
 
         public void advance() {
@@ -235,12 +810,58 @@ public final class Lexer {
 
         public void skip() {
             length = 0;
+            escaped = false;
+            number = Token.NO_NUMBER;
         }
 
         public Token emit(Token.Type type) {
             int start = index - length;
+            boolean escaped = this.escaped;
+            long number = this.number;
             skip();
-            return new Token(type, input.substring(start, index), start);
+            if (reader == null)
+            {
+                return new Token(type, input.subSequence(start, index).toString(), start, escaped, number);
+            }
+            return new Token(type, new String(buffer, start - this.start, index - start), start, escaped, number);
+        }
+
+        /**
+         * Reads from the reader until the character at the absolute position
+         * {@code target} is buffered, returning false if the input ends first.
+         * Characters before the current token are discarded to make room.
+         */
+        private boolean fill(int target) {
+            try
+            {
+                while (end <= target)
+                {
+                    if (end - start == buffer.length)
+                    {
+                        int discard = index - length - start;
+                        if (discard > 0)
+                        {
+                            System.arraycopy(buffer, discard, buffer, 0, end - start - discard);
+                            start += discard;
+                        }
+                        else
+                        {
+                            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        }
+                    }
+                    int read = reader.read(buffer, end - start, buffer.length - (end - start));
+                    if (read < 0)
+                    {
+                        return false;
+                    }
+                    end += read;
+                }
+                return true;
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
         }
 
     }
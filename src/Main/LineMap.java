@@ -0,0 +1,95 @@
+package Main;
+
+import java.util.Arrays;
+
+/**
+ * Converts character indices in a source, such as {@link Token#getIndex()}
+ * and {@link ParseException#getIndex()}, into line and column numbers.
+ *
+ * The start of each line is found in a single pass over the source the first
+ * time a position is requested, after which each lookup is a binary search.
+ * Lines end at {@code \n}, {@code \r} or {@code \r\n}, and both lines and
+ * columns start at 1.
+ */
+public final class LineMap {
+
+    private final CharSequence source;
+    private int[] starts = null;
+    private int lines = 0;
+
+    public LineMap(CharSequence source) {
+        this.source = source;
+    }
+
+    /**
+     * Returns the line containing the given index, which may be the length of
+     * the source for errors at the end of input.
+     */
+    public int getLine(int index) {
+        check(index);
+        int line = Arrays.binarySearch(starts, 0, lines, index);
+        return line >= 0 ? line + 1 : -line - 1;
+    }
+
+    /**
+     * Returns the column of the given index within its line.
+     */
+    public int getColumn(int index) {
+        return index - starts[getLine(index) - 1] + 1;
+    }
+
+    /**
+     * Returns the index of the first character of the given line.
+     */
+    public int getLineStart(int line) {
+        if (line < 1 || line > getLineCount()) {
+            throw new IndexOutOfBoundsException("Line " + line + " out of bounds for " + lines + " lines.");
+        }
+        return starts[line - 1];
+    }
+
+    public int getLineCount() {
+        if (starts == null) {
+            build();
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the position of the given index as {@code line:column}.
+     */
+    public String format(int index) {
+        return getLine(index) + ":" + getColumn(index);
+    }
+
+    private void check(int index) {
+        if (starts == null) {
+            build();
+        }
+        if (index < 0 || index > source.length()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + source.length() + ".");
+        }
+    }
+
+    private void build() {
+        int[] starts = new int[64];
+        int lines = 1;
+        int length = source.length();
+        for (int i = 0; i < length; i++) {
+            char c = source.charAt(i);
+            if (c > '\r' || (c != '\n' && c != '\r')) {
+                continue;
+            }
+            if (c == '\r' && i + 1 < length && source.charAt(i + 1) == '\n') {
+                i++;
+            }
+            if (lines == starts.length) {
+                starts = Arrays.copyOf(starts, lines * 2);
+            }
+            starts[lines++] = i + 1;
+        }
+        this.lines = lines;
+        this.starts = starts;
+    }
+
+}
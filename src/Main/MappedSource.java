@@ -0,0 +1,86 @@
+package Main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link CharSequence} over a memory mapped source file, allowing the lexer
+ * to read very large inputs without first loading them into a {@link String}.
+ *
+ * Each byte is a character (ASCII or ISO-8859-1), so character indices are
+ * byte offsets into the file and {@link ParseException} indices stay correct.
+ * Only the slices requested through {@link #subSequence(int, int)} are ever
+ * copied, which for the lexer is one copy per token literal.
+ */
+public final class MappedSource implements CharSequence {
+
+    private final ByteBuffer bytes;
+
+    private MappedSource(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Maps the given ASCII or ISO-8859-1 file.
+     */
+    public static MappedSource map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The file " + path + " is too large to be mapped.");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedSource(buffer);
+        }
+    }
+
+    /**
+     * Maps the given file in any charset. Files which are ASCII or ISO-8859-1
+     * (including UTF-8 files which only contain ASCII) are read directly from
+     * the mapping; anything else has to be decoded into a heap buffer first.
+     */
+    public static CharSequence map(Path path, Charset charset) throws IOException {
+        MappedSource source = map(path);
+        if (charset.equals(StandardCharsets.ISO_8859_1) || charset.equals(StandardCharsets.US_ASCII) || source.isAscii()) {
+            return source;
+        }
+        return charset.decode(source.bytes.duplicate());
+    }
+
+    private boolean isAscii() {
+        for (int i = 0; i < bytes.limit(); i++) {
+            if (bytes.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (bytes.get(index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new MappedSource(bytes.slice(start, end - start));
+    }
+
+    @Override
+    public String toString() {
+        byte[] buffer = new byte[bytes.limit()];
+        bytes.get(0, buffer);
+        return new String(buffer, StandardCharsets.ISO_8859_1);
+    }
+
+}
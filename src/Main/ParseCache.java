@@ -0,0 +1,283 @@
+package Main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent cache of parsed sources keyed by the SHA-256 hash of the
+ * source bytes, so unchanged sources skip the lexer and parser entirely.
+ *
+ * The cache is a directory with one entry file per source, holding the hash,
+ * a CRC32 checksum of the rest of the entry and the source encoded as an
+ * {@link AstArena}, which is read in place from the mapped entry, and an
+ * index file of fixed-size records
+ * (hash and entry size) ordered from least to most recently used, which is
+ * mapped when the cache is opened. Once the entries exceed the size limit the
+ * least recently used are evicted. Every file is written to a temporary file
+ * and atomically moved into place, so a crash never leaves a partial entry or
+ * index; entries written after the index was last saved are found again when
+ * the cache is next opened.
+ *
+ * A cache is not thread safe, and should be closed to save the index.
+ */
+public final class ParseCache implements Closeable {
+
+    private static final int MAGIC = 0x504C4331;
+    private static final int VERSION = 3;
+    private static final int HASH_SIZE = 32;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_HEADER_SIZE = 8 + HASH_SIZE + 4;
+    private static final int RECORD_SIZE = HASH_SIZE + 8;
+    private static final String INDEX = "index";
+    private static final String ENTRY = ".ast";
+    private static final String TEMPORARY = ".tmp";
+
+    private final Path directory;
+    private final long limit;
+
+    /**
+     * The size of each entry by hash, in order of use.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private boolean modified = false;
+
+    private ParseCache(Path directory, long limit) {
+        this.directory = directory;
+        this.limit = limit;
+    }
+
+    /**
+     * Opens the cache in the given directory, creating it if needed, which
+     * keeps at most {@code limit} bytes of entries.
+     */
+    public static ParseCache open(Path directory, long limit) throws IOException {
+        Files.createDirectories(directory);
+        ParseCache cache = new ParseCache(directory, limit);
+        cache.load();
+        return cache;
+    }
+
+    /**
+     * Returns the parsed source of the given file, from the cache if the
+     * file's contents have been parsed before.
+     */
+    public Ast.Source parse(Path file) throws IOException, ParseException {
+        return parse(Files.readAllBytes(file));
+    }
+
+    /**
+     * Returns the parsed source, from the cache if the same source (encoded
+     * as UTF-8) has been parsed before.
+     */
+    public Ast.Source parse(String source) throws IOException, ParseException {
+        return parse(source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Ast.Source parse(byte[] bytes) throws IOException, ParseException {
+        byte[] hash = hash(bytes);
+        String key = hex(hash);
+        Ast.Source source = get(key, hash);
+        if (source == null) {
+            source = new Parser(new Lexer(new String(bytes, StandardCharsets.UTF_8)).lexBuffer()).parseSource();
+            put(key, hash, source);
+        }
+        return source;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total size of the entries in the cache, in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Saves the index if it has changed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!modified) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + entries.size() * RECORD_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(entries.size());
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+            buffer.put(unhex(entry.getKey())).putLong(entry.getValue());
+        }
+        buffer.flip();
+        write(directory.resolve(INDEX), buffer);
+        modified = false;
+    }
+
+    private void load() throws IOException {
+        LinkedHashMap<String, Long> indexed = new LinkedHashMap<>();
+        Path index = directory.resolve(INDEX);
+        if (Files.exists(index)) {
+            try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() >= HEADER_SIZE && buffer.getInt() == MAGIC && buffer.getInt() == VERSION) {
+                    int count = buffer.getInt();
+                    if (count >= 0 && buffer.remaining() >= (long) count * RECORD_SIZE) {
+                        byte[] hash = new byte[HASH_SIZE];
+                        for (int i = 0; i < count; i++) {
+                            buffer.get(hash);
+                            indexed.put(hex(hash), buffer.getLong());
+                        }
+                    }
+                }
+            }
+        }
+        //Entries missing from the index (written since it was saved) are treated as the least recently used
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(TEMPORARY)) {
+                    Files.deleteIfExists(path);
+                } else if (name.endsWith(ENTRY) && !indexed.containsKey(name.substring(0, name.length() - ENTRY.length()))) {
+                    entries.put(name.substring(0, name.length() - ENTRY.length()), Files.size(path));
+                    modified = true;
+                }
+            }
+        }
+        for (Map.Entry<String, Long> entry : indexed.entrySet()) {
+            if (Files.exists(directory.resolve(entry.getKey() + ENTRY))) {
+                entries.put(entry.getKey(), entry.getValue());
+            } else {
+                modified = true;
+            }
+        }
+        for (long length : entries.values()) {
+            size += length;
+        }
+        evict();
+    }
+
+    /**
+     * Returns the cached source with the given hash, or null if it is not
+     * cached (or the entry can't be read or its checksum doesn't match, in
+     * which case it is removed).
+     */
+    private Ast.Source get(String key, byte[] hash) throws IOException {
+        if (entries.get(key) == null) {
+            return null;
+        }
+        modified = true;
+        Path path = directory.resolve(key + ENTRY);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] stored = new byte[HASH_SIZE];
+            if (buffer.remaining() >= ENTRY_HEADER_SIZE && buffer.getInt() == MAGIC && buffer.getInt() == VERSION) {
+                buffer.get(stored);
+                int checksum = buffer.getInt();
+                if (MessageDigest.isEqual(hash, stored) && checksum == checksum(buffer)) {
+                    return AstArena.read(buffer).toAst();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            //Treated as a miss below, and replaced once parsed again
+        }
+        size -= entries.remove(key);
+        Files.deleteIfExists(path);
+        return null;
+    }
+
+    private void put(String key, byte[] hash, Ast.Source source) throws IOException {
+        ByteBuffer payload = AstArena.of(source).toByteBuffer();
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_HEADER_SIZE + payload.remaining());
+        buffer.putInt(MAGIC).putInt(VERSION).put(hash).putInt(checksum(payload)).put(payload);
+        buffer.flip();
+        write(directory.resolve(key + ENTRY), buffer);
+        Long previous = entries.put(key, (long) buffer.capacity());
+        size += buffer.capacity() - (previous == null ? 0 : previous);
+        modified = true;
+        evict();
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is within its
+     * size limit.
+     */
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > limit && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            Files.deleteIfExists(directory.resolve(entry.getKey() + ENTRY));
+            size -= entry.getValue();
+            iterator.remove();
+            modified = true;
+        }
+    }
+
+    /**
+     * Writes the file through a temporary file which is synced and then
+     * atomically moved into place.
+     */
+    private static void write(Path path, ByteBuffer buffer) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + TEMPORARY);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte[] hash(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported.", e);
+        }
+    }
+
+    /**
+     * Returns the CRC32 checksum of the remaining bytes of the buffer,
+     * without changing its position.
+     */
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] unhex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+}
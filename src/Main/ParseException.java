@@ -1,5 +1,10 @@
 package Main;
 
+/**
+ * An error from the lexer or parser, where the index is the character index
+ * in the source of the invalid character or token (or the end of the input).
+ * Use a {@link LineMap} to convert it into a line and column.
+ */
 public final class ParseException extends RuntimeException {
 
     private final int index;
@@ -7,8 +7,13 @@ import org.omg.CORBA.portable.IDLEntity;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * The parser takes the sequence of tokens emitted by the lexer and turns that
@@ -16,8 +21,9 @@ import java.util.Optional;
  * Tree (AST).
  *
  * The parser has a similar architecture to the lexer, just with {@link Token}s
- * instead of characters. As before, {@link #peek(Object...)} and {@link
- * #match(Object...)} are helpers to make the implementation easier.
+ * instead of characters. As before, {@link #peek1(TokenPattern)} and {@link
+ * #match1(TokenPattern)} (and their fixed-arity variants) are helpers to make
+ * the implementation easier.
  *
  * This type of parser is called <em>recursive descent</em>. Each rule in our
  * grammar will have it's own function, and reference to other rules correspond
@@ -25,52 +31,593 @@ import java.util.Optional;
  */
 public final class Parser {
 
+    /**
+     * The number of tokens the lexer may get ahead of the parser when they
+     * are pipelined.
+     */
+    private static final int PIPELINE_CAPACITY = 1024;
+
+    /**
+     * The minimum number of tokens of methods parsed by each task when
+     * parsing in parallel.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 12;
+
+    /**
+     * The patterns used by the parser, compiled once for {@link
+     * #peek1(TokenPattern)} and the other fixed-arity helpers.
+     */
+    private static final TokenPattern IDENTIFIER = TokenPattern.of(Token.Type.IDENTIFIER);
+    private static final TokenPattern INTEGER = TokenPattern.of(Token.Type.INTEGER);
+    private static final TokenPattern DECIMAL = TokenPattern.of(Token.Type.DECIMAL);
+    private static final TokenPattern CHARACTER = TokenPattern.of(Token.Type.CHARACTER);
+    private static final TokenPattern STRING = TokenPattern.of(Token.Type.STRING);
+    private static final TokenPattern LET = TokenPattern.of(Token.Opcode.LET);
+    private static final TokenPattern DEF = TokenPattern.of(Token.Opcode.DEF);
+    private static final TokenPattern DO = TokenPattern.of(Token.Opcode.DO);
+    private static final TokenPattern END = TokenPattern.of(Token.Opcode.END);
+    private static final TokenPattern ELSE = TokenPattern.of(Token.Opcode.ELSE);
+    private static final TokenPattern IN = TokenPattern.of(Token.Opcode.IN);
+    private static final TokenPattern LEFT_PAREN = TokenPattern.of(Token.Opcode.LEFT_PAREN);
+    private static final TokenPattern RIGHT_PAREN = TokenPattern.of(Token.Opcode.RIGHT_PAREN);
+    private static final TokenPattern COMMA = TokenPattern.of(Token.Opcode.COMMA);
+    private static final TokenPattern SEMICOLON = TokenPattern.of(Token.Opcode.SEMICOLON);
+    private static final TokenPattern COLON = TokenPattern.of(Token.Opcode.COLON);
+    private static final TokenPattern DOT = TokenPattern.of(Token.Opcode.DOT);
+    private static final TokenPattern ASSIGN = TokenPattern.of(Token.Opcode.ASSIGN);
+
+    private static final int LOGICAL = 1;
+    private static final int EQUALITY = 2;
+    private static final int ADDITIVE = 3;
+    private static final int MULTIPLICATIVE = 4;
+
+    /**
+     * The binding power of each binary operator by opcode, where 0 is not
+     * a binary operator.
+     */
+    private static final int[] BINDING_POWER = new int[Token.Opcode.values().length];
+
+    static {
+        BINDING_POWER[Token.Opcode.AND.ordinal()] = LOGICAL;
+        BINDING_POWER[Token.Opcode.OR.ordinal()] = LOGICAL;
+        BINDING_POWER[Token.Opcode.LESS.ordinal()] = EQUALITY;
+        BINDING_POWER[Token.Opcode.LESS_EQUAL.ordinal()] = EQUALITY;
+        BINDING_POWER[Token.Opcode.GREATER.ordinal()] = EQUALITY;
+        BINDING_POWER[Token.Opcode.GREATER_EQUAL.ordinal()] = EQUALITY;
+        BINDING_POWER[Token.Opcode.EQUAL.ordinal()] = EQUALITY;
+        BINDING_POWER[Token.Opcode.NOT_EQUAL.ordinal()] = EQUALITY;
+        BINDING_POWER[Token.Opcode.PLUS.ordinal()] = ADDITIVE;
+        BINDING_POWER[Token.Opcode.MINUS.ordinal()] = ADDITIVE;
+        BINDING_POWER[Token.Opcode.MULTIPLY.ordinal()] = MULTIPLICATIVE;
+        BINDING_POWER[Token.Opcode.DIVIDE.ordinal()] = MULTIPLICATIVE;
+    }
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
     private final TokenStream tokens;
 
+    /**
+     * The errors found so far when parsing with {@link #parseSource(List)},
+     * or null when parsing stops at the first error.
+     */
+    private List<ParseException> diagnostics = null;
+
+    /**
+     * The operators (and groups) still waiting for their right operand in
+     * {@link #parseBinaryExpression(int)}, as parallel arrays shared by every
+     * expression of the parser. Each call only uses the entries above those
+     * of the calls it is nested in, such as through a function's arguments.
+     */
+    private int[] pendingMinimums = null;
+    private Ast.Expr[] pendingLefts = null;
+    private Token.Opcode[] pendingOperators = null;
+    private int pending = 0;
+
     public Parser(List<Token> tokens) {
         this.tokens = new TokenStream(tokens);
     }
 
+    /**
+     * Creates a parser reading directly from a {@link TokenBuffer}, so literals
+     * are only created for the tokens which need them (such as names).
+     */
+    public Parser(TokenBuffer tokens) {
+        this.tokens = new TokenStream(tokens);
+    }
+
+    /**
+     * Creates a parser reading tokens as they are needed, such as from {@link
+     * Lexer#tokens()}, so parsing can begin before the input is fully lexed.
+     */
+    public Parser(Iterator<Token> tokens) {
+        this.tokens = new TokenStream(tokens);
+    }
+
+    private Parser(TokenStream tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Lexes and parses the source of the given lexer at the same time, with
+     * the lexer running on a new thread, as {@link #parsePipelined(Lexer,
+     * Executor)}.
+     */
+    public static Ast.Source parsePipelined(Lexer lexer) throws ParseException {
+        return parsePipelined(lexer, task -> {
+            Thread thread = new Thread(task, "lexer");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * Lexes and parses the source of the given lexer at the same time, with
+     * the lexer running as a task on the given executor (which must run it on
+     * another thread) and passing tokens to the parser through a {@link
+     * TokenRing}. This has the same result as lexing and then parsing the
+     * source, including reporting the lexer's exception over the parser's if
+     * the source has both.
+     */
+    public static Ast.Source parsePipelined(Lexer lexer, Executor executor) throws ParseException {
+        TokenRing ring = new TokenRing(PIPELINE_CAPACITY);
+        executor.execute(() -> ring.produce(lexer.tokens()));
+        try {
+            Ast.Source source = new Parser(ring).parseSource();
+            ring.drain();
+            return source;
+        } catch (RuntimeException e) {
+            ring.drain();
+            throw e;
+        }
+    }
+
     /**
      * Parses the {@code source} rule.
      */
     public Ast.Source parseSource() throws ParseException {
         List<Ast.Field> fields = new ArrayList<>();
         List<Ast.Method> methods = new ArrayList<>();
-        while (match("LET"))
+        int[] starts = new int[8];
+        while (peek1(LET))
         {
+            starts = record(starts, fields.size(), tokens.index);
+            tokens.advance();
             fields.add(parseField());
         }
-        while (match("DEF"))
+        while (peek1(DEF))
         {
+            starts = record(starts, fields.size() + methods.size(), tokens.index);
+            tokens.advance();
             methods.add(parseMethod());
         }
+        Ast.Source source = new Ast.Source(fields, methods);
+        source.starts = Arrays.copyOf(record(starts, fields.size() + methods.size(), tokens.index), fields.size() + methods.size() + 1);
+        return source;
+    }
+
+    /**
+     * Parses the {@code source} rule, recovering from syntax errors so every
+     * error in the source is reported at once. Each error is added to the
+     * given list, and the returned source contains whatever could be parsed:
+     *
+     * <ul>
+     *     <li>A statement with an error is replaced by an {@link
+     *     Ast.Stmt.Error} and parsing resumes after the next {@code ;}, or at
+     *     the next {@code END} or {@code ELSE} ending its block.</li>
+     *     <li>A field or method with an error elsewhere (such as a missing
+     *     {@code END}) is left out and parsing resumes at the next {@code
+     *     LET} or {@code DEF}.</li>
+     * </ul>
+     *
+     * If the list is empty afterwards, the result is the same as {@link
+     * #parseSource()}.
+     */
+    public Ast.Source parseSource(List<ParseException> diagnostics) {
+        this.diagnostics = diagnostics;
+        try
+        {
+            List<Ast.Field> fields = new ArrayList<>();
+            List<Ast.Method> methods = new ArrayList<>();
+            while (peek1(LET))
+            {
+                int start = tokens.index;
+                try
+                {
+                    tokens.advance();
+                    fields.add(parseField());
+                }
+                catch (ParseException e)
+                {
+                    diagnostics.add(e);
+                    synchronizeDeclaration(start, true);
+                }
+            }
+            while (tokens.has(0))
+            {
+                int start = tokens.index;
+                try
+                {
+                    if (!match1(DEF))
+                    {
+                        throw new ParseException("Expected DEF", tokens.position());
+                    }
+                    methods.add(parseMethod());
+                }
+                catch (ParseException e)
+                {
+                    diagnostics.add(e);
+                    synchronizeDeclaration(start, false);
+                }
+            }
+            return new Ast.Source(fields, methods);
+        }
+        finally
+        {
+            this.diagnostics = null;
+        }
+    }
+
+    /**
+     * Skips the rest of a field or method with an error starting at the given
+     * index, which is up to the next {@code LET} or {@code DEF} (or past the
+     * {@code ;} ending a field).
+     */
+    private void synchronizeDeclaration(int start, boolean field) {
+        if (tokens.index == start)
+        {
+            tokens.advance();
+        }
+        while (tokens.has(0) && !peek1(LET) && !peek1(DEF))
+        {
+            tokens.advance();
+            if (field && tokens.opcode(-1) == Token.Opcode.SEMICOLON)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Parses a statement within a block. When recovering from errors (see
+     * {@link #parseSource(List)}), an error in the statement is recorded and
+     * the statement is replaced by an {@link Ast.Stmt.Error}. Errors where the
+     * block itself cannot be finished, because the input ends or the next
+     * method starts, are left to the enclosing method.
+     */
+    private Ast.Stmt parseBlockStatement() throws ParseException {
+        if (diagnostics == null)
+        {
+            return parseStatement();
+        }
+        if (!tokens.has(0) || peekMethod())
+        {
+            throw new ParseException("Expected END", tokens.position());
+        }
+        int start = tokens.index;
+        try
+        {
+            return parseStatement();
+        }
+        catch (ParseException e)
+        {
+            if (!tokens.has(0) || peekMethod())
+            {
+                throw e;
+            }
+            diagnostics.add(e);
+            synchronizeStatement(start);
+            return new Ast.Stmt.Error(e.getMessage(), e.getIndex());
+        }
+    }
+
+    /**
+     * Skips the rest of a statement with an error starting at the given
+     * index, which is past the next {@code ;} or up to the next {@code END},
+     * {@code ELSE} or method.
+     */
+    private void synchronizeStatement(int start) {
+        if (tokens.index == start)
+        {
+            tokens.advance();
+        }
+        while (tokens.has(0) && !peekMethod())
+        {
+            switch (tokens.opcode(0))
+            {
+                case SEMICOLON:
+                    tokens.advance();
+                    return;
+                case END:
+                case ELSE:
+                    return;
+                default:
+                    tokens.advance();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the next tokens start a method rather than a statement
+     * using {@code DEF} as a name.
+     */
+    private boolean peekMethod() {
+        return peek3(DEF, IDENTIFIER, LEFT_PAREN);
+    }
+
+    /**
+     * Parses the {@code source} rule, parsing methods in parallel on the
+     * common pool as {@link #parseSourceParallel(ForkJoinPool)}.
+     */
+    public Ast.Source parseSourceParallel() throws ParseException {
+        return parseSourceParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses the {@code source} rule, producing exactly the same result (and
+     * exceptions) as {@link #parseSource()} but parsing methods in parallel.
+     *
+     * Fields are parsed first as usual. The remaining tokens are then split
+     * into runs of whole methods by counting {@code DO}/{@code END} nesting
+     * from each top-level {@code DEF}, and each run is parsed by its own
+     * parser on the pool. The split is only a guess (names like {@code END}
+     * are still identifiers), so if any run fails to parse or does not end
+     * exactly at its last {@code END} the methods are parsed sequentially
+     * instead, which also reports the same exception as {@link
+     * #parseSource()}.
+     */
+    public Ast.Source parseSourceParallel(ForkJoinPool pool) throws ParseException {
+        if (!tokens.isRandomAccess())
+        {
+            return parseSource();
+        }
+        List<Ast.Field> fields = new ArrayList<>();
+        while (match1(LET))
+        {
+            fields.add(parseField());
+        }
+        int start = tokens.index;
+        List<Ast.Method> methods = parseMethodsParallel(pool);
+        if (methods == null)
+        {
+            tokens.index = start;
+            methods = new ArrayList<>();
+            while (match1(DEF))
+            {
+                methods.add(parseMethod());
+            }
+        }
         return new Ast.Source(fields, methods);
     }
 
+    /**
+     * Parses the top-level methods from the current token in parallel,
+     * returning null if they could not be split into runs which each parse
+     * on their own.
+     */
+    private List<Ast.Method> parseMethodsParallel(ForkJoinPool pool) {
+        int total = tokens.limit - tokens.index;
+        int size = Math.max(PARALLEL_CHUNK_SIZE, total / (pool.getParallelism() * 4));
+        List<ForkJoinTask<List<Ast.Method>>> tasks = new ArrayList<>();
+        int start = tokens.index;
+        int end = start;
+        while (end < tokens.limit && tokens.opcode(end - tokens.index) == Token.Opcode.DEF)
+        {
+            end = scanDeclaration(end);
+            if (end - start >= size || end >= tokens.limit || tokens.opcode(end - tokens.index) != Token.Opcode.DEF)
+            {
+                TokenStream run = new TokenStream(tokens, start, end);
+                tasks.add(pool.submit(() -> new Parser(run).parseMethodRun()));
+                start = end;
+            }
+        }
+        List<Ast.Method> methods = new ArrayList<>();
+        boolean parsed = true;
+        for (ForkJoinTask<List<Ast.Method>> task : tasks)
+        {
+            List<Ast.Method> run = task.join();
+            if (run == null)
+            {
+                parsed = false;
+            }
+            else if (parsed)
+            {
+                methods.addAll(run);
+            }
+        }
+        if (!parsed)
+        {
+            return null;
+        }
+        tokens.index = end;
+        return methods;
+    }
+
+    /**
+     * Returns the index just past the declaration starting at the given index,
+     * which is the {@code ;} ending a field starting with {@code LET} or the
+     * {@code END} closing a method starting with {@code DEF}, or the end of
+     * the tokens if there is none. Like the parser, nested {@code DO}/{@code
+     * END} blocks are matched by counting, so this is only a guess of where
+     * the declaration ends.
+     */
+    private int scanDeclaration(int index) {
+        if (tokens.opcode(index - tokens.index) == Token.Opcode.LET)
+        {
+            for (int i = index + 1; i < tokens.limit; i++)
+            {
+                if (tokens.opcode(i - tokens.index) == Token.Opcode.SEMICOLON)
+                {
+                    return i + 1;
+                }
+            }
+            return tokens.limit;
+        }
+        int depth = 0;
+        for (int i = index + 1; i < tokens.limit; i++)
+        {
+            switch (tokens.opcode(i - tokens.index))
+            {
+                case DO:
+                    depth++;
+                    break;
+                case END:
+                    if (--depth <= 0)
+                    {
+                        return i + 1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return tokens.limit;
+    }
+
+    /**
+     * Parses a run of methods split by {@link #parseMethodsParallel}, returning
+     * null if it is not exactly a sequence of valid methods.
+     */
+    private List<Ast.Method> parseMethodRun() {
+        List<Ast.Method> methods = new ArrayList<>();
+        try
+        {
+            while (match1(DEF))
+            {
+                methods.add(parseMethod());
+            }
+        }
+        catch (RuntimeException e)
+        {
+            return null;
+        }
+        return tokens.has(0) ? null : methods;
+    }
+
+    /**
+     * Parses the {@code source} rule for the tokens of an edited source,
+     * reusing the fields and methods of the previous source (by identity)
+     * where possible. The previous source must have been parsed from the
+     * previous tokens, and {@code edit} is the change between them (see
+     * {@link Lexer#relex(String, List, Edit)}).
+     *
+     * Reuse relies on where each declaration started in the previous tokens,
+     * which {@link #parseSource()} and this method record on the source; any
+     * other source is parsed again in full. A declaration ending before the
+     * edit is at the same tokens, and one starting after the edit is reused
+     * if a token starts where its first token moved to, since lexing from
+     * there sees the same characters. Every other declaration is parsed
+     * again, so the cost depends on the size of the edit and the number of
+     * declarations rather than the number of tokens. This produces the same
+     * result as parsing the tokens with {@link #parseSource()}.
+     */
+    public static Ast.Source reparse(Ast.Source previous, List<Token> previousTokens, List<Token> tokens, Edit edit) throws ParseException {
+        int[] starts = previous.starts;
+        int count = starts == null ? 0 : starts.length - 1;
+        int fieldCount = previous.getFields().size();
+        //The start in the new tokens of each reusable declaration, in order
+        int[] moved = new int[count];
+        int[] reusable = new int[count];
+        int size = 0;
+        int shift = tokens.size() - previousTokens.size();
+        for (int i = 0; i < count; i++)
+        {
+            Token first = previousTokens.get(starts[i]);
+            Token last = previousTokens.get(starts[i + 1] - 1);
+            int start = starts[i] + shift;
+            if (last.getIndex() + last.getLiteral().length() < edit.getOffset())
+            {
+                moved[size] = starts[i];
+                reusable[size++] = i;
+            }
+            else if (first.getIndex() > edit.getOffset() + edit.getRemoved() && start < tokens.size() && tokens.get(start).getIndex() == first.getIndex() + edit.getDelta())
+            {
+                moved[size] = start;
+                reusable[size++] = i;
+            }
+        }
+
+        Parser parser = new Parser(tokens);
+        List<Ast.Field> fields = new ArrayList<>();
+        List<Ast.Method> methods = new ArrayList<>();
+        int[] spans = new int[count + 1];
+        while (parser.peek1(LET))
+        {
+            spans = record(spans, fields.size(), parser.tokens.index);
+            int found = Arrays.binarySearch(moved, 0, size, parser.tokens.index);
+            if (found >= 0 && reusable[found] < fieldCount)
+            {
+                fields.add(previous.getFields().get(reusable[found]));
+                parser.tokens.index += starts[reusable[found] + 1] - starts[reusable[found]];
+            }
+            else
+            {
+                parser.tokens.advance();
+                fields.add(parser.parseField());
+            }
+        }
+        while (parser.peek1(DEF))
+        {
+            spans = record(spans, fields.size() + methods.size(), parser.tokens.index);
+            int found = Arrays.binarySearch(moved, 0, size, parser.tokens.index);
+            if (found >= 0 && reusable[found] >= fieldCount)
+            {
+                methods.add(previous.getMethods().get(reusable[found] - fieldCount));
+                parser.tokens.index += starts[reusable[found] + 1] - starts[reusable[found]];
+            }
+            else
+            {
+                parser.tokens.advance();
+                methods.add(parser.parseMethod());
+            }
+        }
+        Ast.Source source = new Ast.Source(fields, methods);
+        source.starts = Arrays.copyOf(record(spans, fields.size() + methods.size(), parser.tokens.index), fields.size() + methods.size() + 1);
+        return source;
+    }
+
+    /**
+     * Records the start of the declaration at the given position for {@link
+     * #reparse(Ast.Source, List, List, Edit)}, growing the array if needed.
+     */
+    private static int[] record(int[] starts, int position, int start) {
+        if (position == starts.length)
+        {
+            starts = Arrays.copyOf(starts, Math.max(8, starts.length * 2));
+        }
+        starts[position] = start;
+        return starts;
+    }
+
     /**
      * Parses the {@code field} rule. This method should only be called if the
      * next tokens start a field, aka {@code LET}.
      */
     public Ast.Field parseField() throws ParseException {
-        if (match(Token.Type.IDENTIFIER, ":", Token.Type.IDENTIFIER))
+        if (match3(IDENTIFIER, COLON, IDENTIFIER))
         {
-            String name = tokens.get(-3).getLiteral();
-            String typename = tokens.get(-1).getLiteral();
+            String name = tokens.literal(-3);
+            String typename = tokens.literal(-1);
             Ast.Expr value = null;
-            if (match("="))
+            if (match1(ASSIGN))
             {
                 value = parseExpression();
             }
-            if (match(";"))
+            if (match1(SEMICOLON))
             {
                 return new Ast.Field(name, typename, Optional.ofNullable(value));
             }
             else
-                throw new ParseException("Expected ';'", tokens.index);
+                throw new ParseException("Expected ';'", tokens.position());
         }
         else
-            throw new ParseException("Expected IDENTIFIER", tokens.index);
+            throw new ParseException("Expected IDENTIFIER", tokens.position());
     }
 
     /**
@@ -78,55 +625,55 @@ public final class Parser {
      * next tokens start a method, aka {@code DEF}.
      */
     public Ast.Method parseMethod() throws ParseException {
-        if (match(Token.Type.IDENTIFIER))
+        if (match1(IDENTIFIER))
         {
-            String name = tokens.get(-1).getLiteral();
-            if (match("("))
+            String name = tokens.literal(-1);
+            if (match1(LEFT_PAREN))
             {
                 List<String> parameters = new ArrayList<>();
                 List<String> parametertypes = new ArrayList<>();
-                while (!match(")"))
+                while (!match1(RIGHT_PAREN))
                 {
-                    if (match(Token.Type.IDENTIFIER, ":", Token.Type.IDENTIFIER))
+                    if (match3(IDENTIFIER, COLON, IDENTIFIER))
                     {
-                        parameters.add(tokens.get(-3).getLiteral());
-                        parametertypes.add(tokens.get(-1).getLiteral());
+                        parameters.add(tokens.literal(-3));
+                        parametertypes.add(tokens.literal(-1));
                     }
-                    else if (match(","))
+                    else if (match1(COMMA))
                     {
-                        if (match(Token.Type.IDENTIFIER, ":", Token.Type.IDENTIFIER))
+                        if (match3(IDENTIFIER, COLON, IDENTIFIER))
                         {
-                            parameters.add(tokens.get(-3).getLiteral());
-                            parametertypes.add(tokens.get(-1).getLiteral());
+                            parameters.add(tokens.literal(-3));
+                            parametertypes.add(tokens.literal(-1));
                         }
                         else
-                            throw new ParseException("Expected IDENTIFIER with type", tokens.index);
+                            throw new ParseException("Expected IDENTIFIER with type", tokens.position());
                     }
                     else
-                        throw new ParseException("Expected IDENTIFIER or ','", tokens.index);
+                        throw new ParseException("Expected IDENTIFIER or ','", tokens.position());
                 }
                 String returntype = null;
-                if (match(":", Token.Type.IDENTIFIER))
+                if (match2(COLON, IDENTIFIER))
                 {
-                    returntype = tokens.get(-1).getLiteral();
+                    returntype = tokens.literal(-1);
                 }
-                if (match("DO"))
+                if (match1(DO))
                 {
                     List<Ast.Stmt> statements = new ArrayList<>();
-                    while (!match("END"))
+                    while (!match1(END))
                     {
-                        statements.add(parseStatement());
+                        statements.add(parseBlockStatement());
                     }
                     return  new Ast.Method(name, parameters, parametertypes, Optional.ofNullable(returntype), statements);
                 }
                 else
-                    throw new ParseException("Expected DO", tokens.index);
+                    throw new ParseException("Expected DO", tokens.position());
             }
             else
-                throw new ParseException("Expected '('", tokens.index);
+                throw new ParseException("Expected '('", tokens.position());
         }
         else
-            throw new ParseException("Expected IDENTIFIER", tokens.index);
+            throw new ParseException("Expected IDENTIFIER", tokens.position());
     }
 
     /**
@@ -135,32 +682,38 @@ public final class Parser {
      * statement, then it is an expression/assignment statement.
      */
     public Ast.Stmt parseStatement() throws ParseException {
-        if (match("LET"))
-            return parseDeclarationStatement();
-        else if (match("IF"))
-            return parseIfStatement();
-        else if (match("FOR"))
-            return parseForStatement();
-        else if (match("WHILE"))
-            return parseWhileStatement();
-        else if (match("RETURN"))
-            return parseReturnStatement();
-        else
+        switch (tokens.opcode(0))
         {
-            // Assignment/Expression statement
-            Ast.Expr receiver = parseExpression();
-            if (match("="))
-            {
-                Ast.Expr value = parseExpression();
-                if (match(";"))
-                    return new Ast.Stmt.Assignment(receiver, value);
+            case LET:
+                tokens.advance();
+                return parseDeclarationStatement();
+            case IF:
+                tokens.advance();
+                return parseIfStatement();
+            case FOR:
+                tokens.advance();
+                return parseForStatement();
+            case WHILE:
+                tokens.advance();
+                return parseWhileStatement();
+            case RETURN:
+                tokens.advance();
+                return parseReturnStatement();
+            default:
+                // Assignment/Expression statement
+                Ast.Expr receiver = parseExpression();
+                if (match1(ASSIGN))
+                {
+                    Ast.Expr value = parseExpression();
+                    if (match1(SEMICOLON))
+                        return new Ast.Stmt.Assignment(receiver, value);
+                    else
+                        throw new ParseException("Expected semicolon", tokens.position());
+                }
+                else if (match1(SEMICOLON))
+                    return new Ast.Stmt.Expression(receiver);
                 else
-                    throw new ParseException("Expected semicolon", tokens.index);
-            }
-            else if (match(";"))
-                return new Ast.Stmt.Expression(receiver);
-            else
-                throw new ParseException("Expected Semicolon", tokens.index);
+                    throw new ParseException("Expected Semicolon", tokens.position());
         }
     }
 
@@ -170,57 +723,57 @@ public final class Parser {
      * statement, aka {@code LET}.
      */
     public Ast.Stmt.Declaration parseDeclarationStatement() throws ParseException {
-        if (match(Token.Type.IDENTIFIER))
+        if (match1(IDENTIFIER))
         {
-            String name = tokens.get(-1).getLiteral();
-            if (match(":"))
+            String name = tokens.literal(-1);
+            if (match1(COLON))
             {
-                if (match(Token.Type.IDENTIFIER))
+                if (match1(IDENTIFIER))
                 {
-                    String typename = tokens.get(-1).getLiteral();
-                    if (match("="))
+                    String typename = tokens.literal(-1);
+                    if (match1(ASSIGN))
                     {
                         Ast.Expr value = parseExpression();
                         //Declaration w/name, type, and value
-                        if (match(";"))
+                        if (match1(SEMICOLON))
                         {
                             return new Ast.Stmt.Declaration(name, Optional.of(typename), Optional.of(value));
                         }
                         else
-                            throw new ParseException("Expected semicolon", tokens.index);
+                            throw new ParseException("Expected semicolon", tokens.position());
                     }
                     //Declaration w/name and type
-                    else if (match(";"))
+                    else if (match1(SEMICOLON))
                     {
                         return new Ast.Stmt.Declaration(name, Optional.of(typename), Optional.empty());
                     }
                     else
-                        throw new ParseException("Expected semicolon", tokens.index);
+                        throw new ParseException("Expected semicolon", tokens.position());
                 }
                 else
-                    throw new ParseException("Expected IDENTIFIER", tokens.index);
+                    throw new ParseException("Expected IDENTIFIER", tokens.position());
             }
             //Declaration w/name and value
-            else if (match("="))
+            else if (match1(ASSIGN))
             {
                 Ast.Expr value = parseExpression();
-                if (match(";"))
+                if (match1(SEMICOLON))
                 {
                     return new Ast.Stmt.Declaration(name, Optional.empty(), Optional.of(value));
                 }
                 else
-                    throw new ParseException("Expected semicolon", tokens.index);
+                    throw new ParseException("Expected semicolon", tokens.position());
             }
             //Declaration w/name and nothing else
-            else if (match(";"))
+            else if (match1(SEMICOLON))
             {
                 return new Ast.Stmt.Declaration(name, Optional.empty(), Optional.empty());
             }
             else
-                throw new ParseException("Expect semicolon", tokens.index);
+                throw new ParseException("Expect semicolon", tokens.position());
         }
         else
-            throw new ParseException("Expected IDENTIFIER", tokens.index);
+            throw new ParseException("Expected IDENTIFIER", tokens.position());
     }
 
     /**
@@ -230,27 +783,27 @@ public final class Parser {
      */
     public Ast.Stmt.If parseIfStatement() throws ParseException {
         Ast.Expr condition = parseExpression();
-        if (match("DO"))
+        if (match1(DO))
         {
             //get DO statements
             List<Ast.Stmt> dostatements = new ArrayList<>();
             List<Ast.Stmt> elsestatements = new ArrayList<>();
-            while (!(peek("ELSE") || peek("END")))
+            while (!(peek1(ELSE) || peek1(END)))
             {
-                dostatements.add(parseStatement());
+                dostatements.add(parseBlockStatement());
             }
-            if (match("ELSE"))
+            if (match1(ELSE))
             {
-                while (!peek("END"))
+                while (!peek1(END))
                 {
-                    elsestatements.add(parseStatement());
+                    elsestatements.add(parseBlockStatement());
                 }
             }
-            match("END");
+            match1(END);
             return new Ast.Stmt.If(condition, dostatements, elsestatements);
         }
         else
-            throw new ParseException("Expected DO", tokens.index);
+            throw new ParseException("Expected DO", tokens.position());
     }
 
     /**
@@ -259,29 +812,29 @@ public final class Parser {
      * {@code FOR}.
      */
     public Ast.Stmt.For parseForStatement() throws ParseException {
-        if (match(Token.Type.IDENTIFIER))
+        if (match1(IDENTIFIER))
         {
-            String name = tokens.get(-1).getLiteral();
-            if (match("IN"))
+            String name = tokens.literal(-1);
+            if (match1(IN))
             {
                 Ast.Expr value = parseExpression();
-                if (match("DO"))
+                if (match1(DO))
                 {
                     List<Ast.Stmt> statements = new ArrayList<>();
-                    while (!match("END"))
+                    while (!match1(END))
                     {
-                        statements.add(parseStatement());
+                        statements.add(parseBlockStatement());
                     }
                     return new Ast.Stmt.For(name, value, statements);
                 }
                 else
-                    throw new ParseException("Expected DO", tokens.index);
+                    throw new ParseException("Expected DO", tokens.position());
             }
             else
-                throw new ParseException("Expected IN", tokens.index);
+                throw new ParseException("Expected IN", tokens.position());
         }
         else
-            throw new ParseException("Expected IDENTIFIER", tokens.index);
+            throw new ParseException("Expected IDENTIFIER", tokens.position());
     }
 
     /**
@@ -291,17 +844,17 @@ public final class Parser {
      */
     public Ast.Stmt.While parseWhileStatement() throws ParseException {
         Ast.Expr condition = parseExpression();
-        if (match("DO"))
+        if (match1(DO))
         {
             List<Ast.Stmt> statements = new ArrayList<>();
-            while (!match("END"))
+            while (!match1(END))
             {
-                statements.add(parseStatement());
+                statements.add(parseBlockStatement());
             }
             return new Ast.Stmt.While(condition, statements);
         }
         else
-            throw new ParseException("Expected DO", tokens.index);
+            throw new ParseException("Expected DO", tokens.position());
     }
 
     /**
@@ -311,109 +864,167 @@ public final class Parser {
      */
     public Ast.Stmt.Return parseReturnStatement() throws ParseException {
         Ast.Expr value = parseExpression();
-        if (match(";"))
+        if (match1(SEMICOLON))
             return new Ast.Stmt.Return(value);
         else
-            throw new ParseException("Expected semicolon", tokens.index);
+            throw new ParseException("Expected semicolon", tokens.position());
     }
 
     /**
      * Parses the {@code expression} rule.
      */
     public Ast.Expr parseExpression() throws ParseException {
-        return parseLogicalExpression();
+        return parseBinaryExpression(0);
     }
 
     /**
      * Parses the {@code logical-expression} rule.
      */
     public Ast.Expr parseLogicalExpression() throws ParseException {
-        Ast.Expr left = parseEqualityExpression();
-        String operator = null;
-        Ast.Expr right = null;
-        if (match("AND") | match("OR"))
-        {
-            operator = tokens.get(-1).getLiteral();
-            right = parseEqualityExpression();
-            return new Ast.Expr.Binary(operator, left, right);
-        }
-        else
-            return left;
+        return parseBinaryExpression(0);
     }
 
     /**
      * Parses the {@code equality-expression} rule.
      */
     public Ast.Expr parseEqualityExpression() throws ParseException {
-        Ast.Expr left = parseAdditiveExpression();
-        String operator = null;
-        Ast.Expr right = null;
-        if (match("<") | match("<=") | match(">") | match(">=") | match("==")| match("!="))
-        {
-            operator = tokens.get(-1).getLiteral();
-            right = parseAdditiveExpression();
-            return new Ast.Expr.Binary(operator, left, right);
-        }
-        else
-            return left;
+        return parseBinaryExpression(LOGICAL);
     }
 
     /**
      * Parses the {@code additive-expression} rule.
      */
     public Ast.Expr parseAdditiveExpression() throws ParseException {
-        Ast.Expr left = parseMultiplicativeExpression();
-        String operator = null;
-        Ast.Expr right = null;
-        if (match("+") | match("-"))
-        {
-            operator = tokens.get(-1).getLiteral();
-            right = parseMultiplicativeExpression();
-            return new Ast.Expr.Binary(operator, left, right);
-        }
-        else
-            return left;
+        return parseBinaryExpression(EQUALITY);
     }
 
     /**
      * Parses the {@code multiplicative-expression} rule.
      */
     public Ast.Expr parseMultiplicativeExpression() throws ParseException {
-        Ast.Expr left = parseSecondaryExpression();
-        String operator = null;
-        Ast.Expr right = null;
-        if (match("*") | match("/"))
+        return parseBinaryExpression(ADDITIVE);
+    }
+
+    /**
+     * Parses a chain of binary operators binding tighter than the given
+     * binding power, which is the rule for the logical, equality, additive
+     * and multiplicative expressions at once. Rather than descending through
+     * one method per rule for each operand, the binding power of the operator
+     * is looked up in {@link #BINDING_POWER} and only operators binding
+     * tighter are parsed as the right operand, making chains of operators
+     * with the same binding power left associative.
+     *
+     * Operators waiting for their right operand are kept on an explicit stack
+     * rather than the call stack, as are groups (which are otherwise part of
+     * the {@code primary-expression} rule), so long chains and deeply nested
+     * groups are limited by the heap instead of the thread's stack size.
+     */
+    private Ast.Expr parseBinaryExpression(int minimum) throws ParseException {
+        int base = pending;
+        try
+        {
+            while (true)
+            {
+                if (match1(LEFT_PAREN))
+                {
+                    push(minimum, null, Token.Opcode.LEFT_PAREN);
+                    minimum = 0;
+                    continue;
+                }
+                Ast.Expr operand = parseSecondaryExpression();
+                while (true)
+                {
+                    Token.Opcode operator = tokens.opcode(0);
+                    int power = BINDING_POWER[operator.ordinal()];
+                    if (power > minimum)
+                    {
+                        tokens.advance();
+                        push(minimum, operand, operator);
+                        minimum = power;
+                        break;
+                    }
+                    else if (pending == base)
+                    {
+                        return operand;
+                    }
+                    pending--;
+                    minimum = pendingMinimums[pending];
+                    if (pendingOperators[pending] == Token.Opcode.LEFT_PAREN)
+                    {
+                        match1(RIGHT_PAREN);
+                        operand = parseReceiverExpression(new Ast.Expr.Group(operand));
+                    }
+                    else
+                    {
+                        operand = new Ast.Expr.Binary(pendingOperators[pending].getLiteral(), pendingLefts[pending], operand);
+                        pendingLefts[pending] = null;
+                    }
+                }
+            }
+        }
+        finally
         {
-            operator = tokens.get(-1).getLiteral();
-            right = parseSecondaryExpression();
-            return new Ast.Expr.Binary(operator, left, right);
+            //Only left above the base by an exception, cleared so the operands can be collected
+            while (pending > base)
+            {
+                pendingLefts[--pending] = null;
+            }
         }
-        else
-            return left;
+    }
+
+    /**
+     * Pushes an operator waiting for its right operand (or an open group if
+     * the operator is {@code (}) along with the binding power to return to
+     * afterwards, allocating the stack for the parser's first operator.
+     */
+    private void push(int minimum, Ast.Expr left, Token.Opcode operator) {
+        if (pendingMinimums == null)
+        {
+            pendingMinimums = new int[16];
+            pendingLefts = new Ast.Expr[16];
+            pendingOperators = new Token.Opcode[16];
+        }
+        else if (pending == pendingMinimums.length)
+        {
+            pendingMinimums = Arrays.copyOf(pendingMinimums, pending * 2);
+            pendingLefts = Arrays.copyOf(pendingLefts, pending * 2);
+            pendingOperators = Arrays.copyOf(pendingOperators, pending * 2);
+        }
+        pendingMinimums[pending] = minimum;
+        pendingLefts[pending] = left;
+        pendingOperators[pending] = operator;
+        pending++;
     }
 
     /**
      * Parses the {@code secondary-expression} rule.
      */
     public Ast.Expr parseSecondaryExpression() throws ParseException {
-        Ast.Expr primary = parsePrimaryExpression();
+        return parseReceiverExpression(parsePrimaryExpression());
+    }
+
+    /**
+     * Parses the rest of the {@code secondary-expression} rule after the
+     * primary expression, which is the receiver of the function or access.
+     */
+    private Ast.Expr parseReceiverExpression(Ast.Expr primary) throws ParseException {
         //Functions w/receiver
-        if (match(".", Token.Type.IDENTIFIER, "("))
+        if (match3(DOT, IDENTIFIER, LEFT_PAREN))
         {
-            String name = tokens.get(-2).getLiteral();
+            String name = tokens.literal(-2);
             ArrayList<Ast.Expr> parameters = new ArrayList<>();
 
             //Add parameters if any
-            while (!match(")")) {
+            while (!match1(RIGHT_PAREN)) {
                 parameters.add(parseExpression());
-                match(",");
+                match1(COMMA);
             }
             return new Ast.Expr.Function(Optional.of(primary), name, parameters);
         }
         //Access w/receiver
-        else if (match(".", Token.Type.IDENTIFIER))
+        else if (match2(DOT, IDENTIFIER))
         {
-            return new Ast.Expr.Access(Optional.of(primary), tokens.get(-1).getLiteral());
+            return new Ast.Expr.Access(Optional.of(primary), tokens.literal(-1));
         }
         else
             return primary;
@@ -426,160 +1037,373 @@ public final class Parser {
      * not strictly necessary.
      */
     public Ast.Expr parsePrimaryExpression() throws ParseException {
-        //literals
-        if (peek("NIL"))
-        {
-            match("NIL");
-            return new Ast.Expr.Literal(null);
-        }
-        else if (peek("TRUE"))
-        {
-            match("TRUE");
-            return new Ast.Expr.Literal(Boolean.TRUE);
-        }
-        else if (peek("FALSE"))
+        switch (tokens.opcode(0))
         {
-            match("FALSE");
-            return new Ast.Expr.Literal(Boolean.FALSE);
+            //literals
+            case NIL:
+                tokens.advance();
+                return new Ast.Expr.Literal(null);
+            case TRUE:
+                tokens.advance();
+                return new Ast.Expr.Literal(Boolean.TRUE);
+            case FALSE:
+                tokens.advance();
+                return new Ast.Expr.Literal(Boolean.FALSE);
+            //Group
+            case LEFT_PAREN:
+                tokens.advance();
+                Ast.Expr expression = parseExpression();
+                match1(RIGHT_PAREN);
+                return new Ast.Expr.Group(expression);
         }
-        else if (peek(Token.Type.INTEGER))
+        if (peek1(INTEGER))
         {
-            match(Token.Type.INTEGER);
-            return new Ast.Expr.Literal(BigInteger.valueOf(Integer.parseInt(tokens.get(-1).getLiteral())));
+            match1(INTEGER);
+            return new Ast.Expr.Literal(parseInteger(-1));
         }
-        else if (peek(Token.Type.DECIMAL))
+        else if (peek1(DECIMAL))
         {
-            match(Token.Type.DECIMAL);
-            return new Ast.Expr.Literal(BigDecimal.valueOf(Double.parseDouble(tokens.get(-1).getLiteral())));
+            match1(DECIMAL);
+            return new Ast.Expr.Literal(parseDecimal(-1));
         }
-        else if (peek(Token.Type.CHARACTER))
+        else if (peek1(CHARACTER))
         {
-            match(Token.Type.CHARACTER);
-            // replacing single quotations
-            String buffer = tokens.get(-1).getLiteral().replace("'","");
-            // replacing escape characters
-            buffer = buffer.replace("\\b","\b");
-            buffer = buffer.replace("\\n","\n");
-            buffer = buffer.replace("\\r","\r");
-            buffer = buffer.replace("\\'","'");
-            buffer = buffer.replace("\\\"","\"");
-            buffer = buffer.replace("\\\\","\\");
-            char lit = buffer.charAt(0);
+            match1(CHARACTER);
+            char lit = tokens.decodedLiteral(-1).charAt(0);
             return new Ast.Expr.Literal(lit);
         }
-        else if (peek(Token.Type.STRING))
-        {
-            match(Token.Type.STRING);
-            // replacing quotations
-            String buffer = tokens.get(-1).getLiteral().replace("\"","");
-            // replacing escape characters
-            buffer = buffer.replace("\\b","\b");
-            buffer = buffer.replace("\\n","\n");
-            buffer = buffer.replace("\\r","\r");
-            buffer = buffer.replace("\\'","'");
-            buffer = buffer.replace("\\\"","\"");
-            buffer = buffer.replace("\\\\","\\");
-            return new Ast.Expr.Literal(buffer);
-        }
-        //Group
-        else if (peek("("))
+        else if (peek1(STRING))
         {
-            match("(");
-            Ast.Expr buffer = parseExpression();
-            match(")");
-            return new Ast.Expr.Group(buffer);
+            match1(STRING);
+            String buffer = tokens.decodedLiteral(-1);
+            return new Ast.Expr.Literal(buffer);
         }
         //Function
-        else if (peek(Token.Type.IDENTIFIER, "("))
+        else if (peek2(IDENTIFIER, LEFT_PAREN))
         {
-            match(Token.Type.IDENTIFIER, "(");
-            String name = tokens.get(-2).getLiteral();
+            match2(IDENTIFIER, LEFT_PAREN);
+            String name = tokens.literal(-2);
             ArrayList<Ast.Expr> parameters = new ArrayList<>();
 
             //Add parameters if any
-            while (!match(")")) {
+            while (!match1(RIGHT_PAREN)) {
                 parameters.add(parseExpression());
-                match(",");
+                match1(COMMA);
             }
             return new Ast.Expr.Function(Optional.empty(), name, parameters);
         }
         //Access (variables)
-        else if (peek(Token.Type.IDENTIFIER))
+        else if (peek1(IDENTIFIER))
         {
-            match(Token.Type.IDENTIFIER);
-            return new Ast.Expr.Access(Optional.empty(), tokens.get(-1).getLiteral());
+            match1(IDENTIFIER);
+            return new Ast.Expr.Access(Optional.empty(), tokens.literal(-1));
         }
         else
-            throw new ParseException("Could not Parse PrimaryExpr",tokens.index);
+            throw new ParseException("Could not Parse PrimaryExpr", tokens.position());
     }
 
     /**
-     * As in the lexer, returns {@code true} if the current sequence of tokens
-     * matches the given patterns. Unlike the lexer, the pattern is not a regex;
-     * instead it is either a {@link Token.Type}, which matches if the token's
-     * type is the same, or a {@link String}, which matches if the token's
-     * literal is the same.
-     *
-     * In other words, {@code Token(IDENTIFIER, "literal")} is matched by both
-     * {@code peek(Token.Type.IDENTIFIER)} and {@code peek("literal")}.
+     * Returns the value of the INTEGER token at the given offset, using the
+     * value accumulated by the lexer unless the literal is too long for it.
      */
-    private boolean peek(Object... patterns) {
-        for (int i = 0; i < patterns.length; i++) {
-            if (!tokens.has(i)) {
-                return false;
-            }
-            else if (patterns[i] instanceof Token.Type) {
-                if (patterns[i] != tokens.get(i).getType()) {
-                    return false;
-                }
-            }
-            else if (patterns[i] instanceof String) {
-                if (!patterns[i].equals(tokens.get(i).getLiteral())) {
-                    return false;
-                }
+    private BigInteger parseInteger(int offset) {
+        long number = tokens.number(offset);
+        if (number != Token.NO_NUMBER)
+        {
+            return BigInteger.valueOf(number);
+        }
+        return new BigInteger(tokens.literal(offset));
+    }
+
+    /**
+     * Returns the value of the DECIMAL token at the given offset. Decimals are
+     * {@code BigDecimal.valueOf(double)}, which formats the double with {@link
+     * Double#toString(double)}. For at most 15 significant digits between
+     * 10^-3 and 10^7 that is the literal without trailing zeros (keeping one
+     * digit after the point), so it can be built from the lexer's digits.
+     */
+    private BigDecimal parseDecimal(int offset) {
+        long number = tokens.number(offset);
+        if (number != Token.NO_NUMBER)
+        {
+            long mantissa = number >> 5;
+            int scale = (int) (number & 31);
+            while (scale > 1 && mantissa % 10 == 0)
+            {
+                mantissa /= 10;
+                scale--;
             }
-            else {
-                throw new AssertionError(("Invalid pattern object: " + patterns[i].getClass()));
+            long magnitude = Math.abs(mantissa);
+            boolean small = scale >= 3 && magnitude < POWERS_OF_TEN[scale - 3];
+            boolean large = scale + 7 < POWERS_OF_TEN.length && magnitude >= POWERS_OF_TEN[scale + 7];
+            if (magnitude < POWERS_OF_TEN[15] && (magnitude == 0 || (!small && !large)))
+            {
+                return BigDecimal.valueOf(mantissa, scale);
             }
         }
-        return true;
+        return BigDecimal.valueOf(Double.parseDouble(tokens.literal(offset)));
     }
 
     /**
-     * As in the lexer, returns {@code true} if {@link #peek(Object...)} is true
-     * and advances the token stream.
+     * As in the lexer, returns {@code true} if the current token matches the
+     * given pattern. Unlike the lexer, the pattern is not a regex; instead it
+     * matches a {@link Token.Type} or a {@link Token.Opcode} (a keyword or
+     * operator), see {@link TokenPattern}. {@link #peek2} and {@link #peek3}
+     * match the following tokens as well.
      */
-    private boolean match(Object... patterns) {
-        boolean peek = peek(patterns);
-        if (peek) {
-            for (int i = 0; i < patterns.length; i++) {
-                tokens.advance();
+    private boolean peek1(TokenPattern first) {
+        return first.matches(tokens, 0);
+    }
+
+    private boolean peek2(TokenPattern first, TokenPattern second) {
+        return first.matches(tokens, 0) && second.matches(tokens, 1);
+    }
+
+    private boolean peek3(TokenPattern first, TokenPattern second, TokenPattern third) {
+        return first.matches(tokens, 0) && second.matches(tokens, 1) && third.matches(tokens, 2);
+    }
+
+    /**
+     * As in the lexer, advances past the current token if {@link
+     * #peek1(TokenPattern)} is true, and likewise for {@link #match2} and
+     * {@link #match3}.
+     */
+    private boolean match1(TokenPattern first) {
+        if (peek1(first)) {
+            tokens.advance();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean match2(TokenPattern first, TokenPattern second) {
+        if (peek2(first, second)) {
+            tokens.index += 2;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean match3(TokenPattern first, TokenPattern second, TokenPattern third) {
+        if (peek3(first, second, third)) {
+            tokens.index += 3;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A pattern for {@link #peek1(TokenPattern)} compiled ahead of time, so
+     * the parser's own patterns are constants rather than being checked with
+     * {@code instanceof} on every call. A {@link Token.Type} matches if the
+     * token's type is the same, and a {@link Token.Opcode} matches if the
+     * token is that keyword or operator, so {@code Token(IDENTIFIER, "LET")}
+     * is matched by both {@code IDENTIFIER} and {@code LET}.
+     */
+    private static final class TokenPattern {
+
+        private static final TokenPattern[] TYPES = new TokenPattern[Token.Type.values().length];
+        private static final TokenPattern[] OPCODES = new TokenPattern[Token.Opcode.values().length];
+
+        static {
+            for (Token.Type type : Token.Type.values()) {
+                TYPES[type.ordinal()] = new TokenPattern(type, null);
             }
+            for (Token.Opcode opcode : Token.Opcode.values()) {
+                OPCODES[opcode.ordinal()] = new TokenPattern(null, opcode);
+            }
+        }
+
+        private final Token.Type type;
+        private final Token.Opcode opcode;
+
+        private TokenPattern(Token.Type type, Token.Opcode opcode) {
+            this.type = type;
+            this.opcode = opcode;
+        }
+
+        private static TokenPattern of(Token.Type type) {
+            return TYPES[type.ordinal()];
         }
-        return peek;
+
+        private static TokenPattern of(Token.Opcode opcode) {
+            return OPCODES[opcode.ordinal()];
+        }
+
+        /**
+         * Returns true if there is a token at the given offset matching this
+         * pattern.
+         */
+        private boolean matches(TokenStream tokens, int offset) {
+            if (!tokens.has(offset)) {
+                return false;
+            } else if (opcode != null) {
+                return tokens.opcode(offset) == opcode;
+            }
+            return tokens.type(offset) == type;
+        }
+
     }
 
     private static final class TokenStream {
 
+        /**
+         * The number of tokens kept when streaming, which must cover the
+         * furthest lookbehind ({@code get(-3)}) and lookahead ({@code peek}
+         * of three patterns) used by the parser. Must be a power of two.
+         */
+        private static final int WINDOW = 8;
+
         private final List<Token> tokens;
+        private final TokenBuffer buffer;
+        private final Iterator<Token> source;
+        private final Token[] window;
+        private final int limit;
+        private int fetched = 0;
         private int index = 0;
 
         private TokenStream(List<Token> tokens) {
             this.tokens = tokens;
+            this.buffer = null;
+            this.source = null;
+            this.window = null;
+            this.limit = tokens.size();
+        }
+
+        private TokenStream(TokenBuffer buffer) {
+            this.tokens = null;
+            this.buffer = buffer;
+            this.source = null;
+            this.window = null;
+            this.limit = buffer.size();
+        }
+
+        private TokenStream(Iterator<Token> source) {
+            this.tokens = null;
+            this.buffer = null;
+            this.source = source;
+            this.window = new Token[WINDOW];
+            this.limit = 0;
+        }
+
+        /**
+         * Creates a stream over the tokens of the given stream from index
+         * {@code start} (inclusive) to {@code end} (exclusive), which must
+         * not be streaming.
+         */
+        private TokenStream(TokenStream stream, int start, int end) {
+            this.tokens = stream.tokens;
+            this.buffer = stream.buffer;
+            this.source = null;
+            this.window = null;
+            this.limit = end;
+            this.index = start;
+        }
+
+        /**
+         * Returns true if all tokens are available at once, rather than
+         * streaming from an iterator.
+         */
+        public boolean isRandomAccess() {
+            return source == null;
         }
 
         /**
          * Returns true if there is a token at index + offset.
          */
         public boolean has(int offset) {
-            return index + offset < tokens.size();
+            if (source == null) {
+                return index + offset < limit;
+            }
+            while (fetched <= index + offset && source.hasNext()) {
+                window[fetched++ & (WINDOW - 1)] = source.next();
+            }
+            return index + offset < fetched;
         }
 
         /**
          * Gets the token at index + offset.
          */
         public Token get(int offset) {
-            return tokens.get(index + offset);
+            if (tokens != null) {
+                return tokens.get(index + offset);
+            } else if (buffer != null) {
+                return buffer.get(index + offset);
+            }
+            has(offset);
+            return window[(index + offset) & (WINDOW - 1)];
+        }
+
+        /**
+         * Gets the type of the token at index + offset.
+         */
+        public Token.Type type(int offset) {
+            if (buffer != null) {
+                return buffer.getType(index + offset);
+            }
+            return get(offset).getType();
+        }
+
+        /**
+         * Gets the opcode of the token at index + offset, or {@link
+         * Token.Opcode#NONE} if there is no token.
+         */
+        public Token.Opcode opcode(int offset) {
+            if (!has(offset)) {
+                return Token.Opcode.NONE;
+            }
+            if (buffer != null) {
+                return buffer.getOpcode(index + offset);
+            }
+            return get(offset).getOpcode();
+        }
+
+        /**
+         * Gets the literal of the token at index + offset.
+         */
+        public String literal(int offset) {
+            if (buffer != null) {
+                return buffer.getLiteral(index + offset);
+            }
+            return get(offset).getLiteral();
+        }
+
+        /**
+         * Gets the value the lexer accumulated for the number at index +
+         * offset, see {@link Token#getNumber()}.
+         */
+        public long number(int offset) {
+            if (buffer != null) {
+                return buffer.getNumber(index + offset);
+            }
+            return get(offset).getNumber();
+        }
+
+        /**
+         * Gets the decoded value of the string or character literal at index
+         * + offset.
+         */
+        public String decodedLiteral(int offset) {
+            if (buffer != null) {
+                return buffer.getDecodedLiteral(index + offset);
+            }
+            return get(offset).getDecodedLiteral();
+        }
+
+        /**
+         * Returns the character index of the current token for errors, or
+         * the index just past the previous token at the end of input.
+         */
+        public int position() {
+            if (has(0)) {
+                return buffer != null ? buffer.getIndex(index) : get(0).getIndex();
+            } else if (index == 0) {
+                return 0;
+            } else if (buffer != null) {
+                return buffer.getIndex(index - 1) + buffer.getLength(index - 1);
+            }
+            Token previous = get(-1);
+            return previous.getIndex() + previous.getLiteral().length();
         }
 
         /**
@@ -34,6 +34,17 @@ public final class Scope {
         }
     }
 
+    /**
+     * Defines an existing variable, such as one kept from an earlier analysis
+     * by {@link IncrementalAnalyzer}.
+     */
+    void defineVariable(Environment.Variable variable) {
+        if (variables.containsKey(variable.getName())) {
+            throw new RuntimeException("The variable " + variable.getName() + " is already defined in this scope.");
+        }
+        variables.put(variable.getName(), variable);
+    }
+
     public Environment.Variable lookupVariable(String name) {
         if (variables.containsKey(name)) {
             return variables.get(name);
@@ -62,6 +73,17 @@ public final class Scope {
         }
     }
 
+    /**
+     * Defines an existing function, see {@link #defineVariable(Environment.Variable)}.
+     */
+    void defineFunction(Environment.Function function) {
+        String key = function.getName() + "/" + function.getParameterTypes().size();
+        if (functions.containsKey(key)) {
+            throw new RuntimeException("The function " + key + " is already defined in this scope.");
+        }
+        functions.put(key, function);
+    }
+
     public Environment.Function lookupFunction(String name, int arity) {
         if (functions.containsKey(name + "/" + arity)) {
             return functions.get(name + "/" + arity);
@@ -11,14 +11,138 @@ public final class Token {
         OPERATOR
     }
 
+    /**
+     * The keywords and operators of the language, which the parser matches on
+     * instead of comparing literals. Every token is classified once when it is
+     * created, with {@link #NONE} for all other literals.
+     */
+    public enum Opcode {
+        NONE(""),
+        LET("LET"),
+        DEF("DEF"),
+        DO("DO"),
+        END("END"),
+        IF("IF"),
+        ELSE("ELSE"),
+        FOR("FOR"),
+        IN("IN"),
+        WHILE("WHILE"),
+        RETURN("RETURN"),
+        NIL("NIL"),
+        TRUE("TRUE"),
+        FALSE("FALSE"),
+        AND("AND"),
+        OR("OR"),
+        LEFT_PAREN("("),
+        RIGHT_PAREN(")"),
+        COMMA(","),
+        SEMICOLON(";"),
+        COLON(":"),
+        DOT("."),
+        ASSIGN("="),
+        LESS("<"),
+        LESS_EQUAL("<="),
+        GREATER(">"),
+        GREATER_EQUAL(">="),
+        EQUAL("=="),
+        NOT_EQUAL("!="),
+        PLUS("+"),
+        MINUS("-"),
+        MULTIPLY("*"),
+        DIVIDE("/");
+
+        /**
+         * A perfect hash table of every opcode, indexed by {@link #hash}. The
+         * hash of the first character, last character and length has no
+         * collisions between the literals above.
+         */
+        private static final Opcode[] TABLE = new Opcode[64];
+
+        static {
+            for (Opcode opcode : values()) {
+                if (opcode != NONE) {
+                    int hash = hash(opcode.literal, 0, opcode.literal.length());
+                    if (TABLE[hash] != null) {
+                        throw new AssertionError("Opcodes " + TABLE[hash] + " and " + opcode + " collide.");
+                    }
+                    TABLE[hash] = opcode;
+                }
+            }
+        }
+
+        private final String literal;
+
+        Opcode(String literal) {
+            this.literal = literal;
+        }
+
+        public String getLiteral() {
+            return literal;
+        }
+
+        /**
+         * Returns the opcode of the literal in {@code [start, start + length)}
+         * of the given characters, or {@link #NONE}.
+         */
+        public static Opcode of(CharSequence chars, int start, int length) {
+            if (length == 0 || length > 6) {
+                return NONE;
+            }
+            Opcode opcode = TABLE[hash(chars, start, length)];
+            if (opcode == null || opcode.literal.length() != length) {
+                return NONE;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars.charAt(start + i) != opcode.literal.charAt(i)) {
+                    return NONE;
+                }
+            }
+            return opcode;
+        }
+
+        private static int hash(CharSequence chars, int start, int length) {
+            return (chars.charAt(start) * 10 + chars.charAt(start + length - 1) * 3 + length * 2) & (TABLE.length - 1);
+        }
+
+    }
+
+    /**
+     * The value of {@link #getNumber()} when the lexer did not record one.
+     */
+    static final long NO_NUMBER = Long.MIN_VALUE;
+
     private final Type type;
     private final String literal;
     private final int index;
+    private final Opcode opcode;
+    private final boolean escaped;
+    private final long number;
+    private String decoded = null;
 
     public Token(Type type, String literal, int index) {
+        this(type, literal, index, literal.indexOf('\\') >= 0, NO_NUMBER);
+    }
+
+    /**
+     * Creates a token with what the lexer learned while scanning it: whether
+     * the literal contains any escapes (see {@link #getDecodedLiteral()}) and
+     * the value of a number (see {@link #getNumber()}).
+     */
+    Token(Type type, String literal, int index, boolean escaped, long number) {
         this.type = type;
         this.literal = literal;
         this.index = index;
+        this.opcode = Opcode.of(literal, 0, literal.length());
+        this.escaped = escaped;
+        this.number = number;
+    }
+
+    /**
+     * Returns this token moved by the given number of characters, keeping what
+     * the lexer learned about it.
+     */
+    Token moved(int delta) {
+        return delta == 0 ? this : new Token(type, literal, index + delta, escaped, number);
     }
 
     public Type getType() {
@@ -33,6 +157,33 @@ public final class Token {
         return index;
     }
 
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Returns the value the lexer accumulated while scanning a number, or
+     * {@link #NO_NUMBER} if it had too many digits. For an {@link
+     * Type#INTEGER} this is the value itself; for a {@link Type#DECIMAL} it is
+     * the digits (without the point) shifted left by five bits, with the number
+     * of digits after the point in the low five bits.
+     */
+    long getNumber() {
+        return number;
+    }
+
+    /**
+     * Returns the value of a {@link Type#STRING} or {@link Type#CHARACTER}
+     * literal, without quotes and with escapes replaced. The value is decoded
+     * on first use and cached.
+     */
+    public String getDecodedLiteral() {
+        if (decoded == null) {
+            decoded = Lexer.decode(literal, 0, literal.length(), escaped);
+        }
+        return decoded;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Token
@@ -0,0 +1,180 @@
+package Main;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact list of tokens produced by {@link Lexer#lexBuffer()}. Rather than
+ * one {@link Token} object and literal per token, the buffer stores parallel
+ * arrays of the type, opcode, start index and length of each token over the
+ * source, which is roughly 10 bytes per token. Sources with numbers also keep
+ * the value of each number as a {@code long}, so parsing them does not need
+ * the literal.
+ *
+ * Literals are only sliced from the source when {@link #getLiteral(int)} is
+ * called; {@link #literalEquals(int, String)} compares against the source in
+ * place so the parser can match keywords and operators without allocating.
+ */
+public final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+    private static final Token.Opcode[] OPCODES = Token.Opcode.values();
+
+    private final CharSequence source;
+    private byte[] types = new byte[64];
+    private byte[] opcodes = new byte[64];
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private long[] numbers = null;
+    private int size = 0;
+
+    public TokenBuffer(CharSequence source) {
+        this.source = source;
+    }
+
+    /**
+     * The bit of {@link #types} set for literals containing escapes.
+     */
+    private static final int ESCAPED = 0x80;
+
+    public void add(Token.Type type, int start, int length) {
+        add(type, start, length, false, Token.NO_NUMBER);
+    }
+
+    /**
+     * Adds a token, where {@code escaped} records whether a string or
+     * character literal contains escapes (see {@link #getDecodedLiteral(int)}).
+     */
+    public void add(Token.Type type, int start, int length, boolean escaped) {
+        add(type, start, length, escaped, Token.NO_NUMBER);
+    }
+
+    /**
+     * Adds a token, where {@code escaped} records whether a string or
+     * character literal contains escapes (see {@link #getDecodedLiteral(int)})
+     * and {@code number} is the value the lexer accumulated for a number, as
+     * in {@link Token#getNumber()}.
+     */
+    void add(Token.Type type, int start, int length, boolean escaped, long number) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            opcodes = Arrays.copyOf(opcodes, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            if (numbers != null) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+            }
+        }
+        if (number != Token.NO_NUMBER && numbers == null) {
+            numbers = new long[types.length];
+            Arrays.fill(numbers, Token.NO_NUMBER);
+        }
+        if (numbers != null) {
+            numbers[size] = number;
+        }
+        types[size] = (byte) (type.ordinal() | (escaped ? ESCAPED : 0));
+        opcodes[size] = (byte) Token.Opcode.of(source, start, length).ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Token.Type getType(int index) {
+        return TYPES[types[check(index)] & (ESCAPED - 1)];
+    }
+
+    public Token.Opcode getOpcode(int index) {
+        return OPCODES[opcodes[check(index)]];
+    }
+
+    /**
+     * Returns the value of a number as in {@link Token#getNumber()}.
+     */
+    long getNumber(int index) {
+        return numbers == null ? Token.NO_NUMBER : numbers[check(index)];
+    }
+
+    /**
+     * Returns the index of the token in the source, as in {@link
+     * Token#getIndex()}.
+     */
+    public int getIndex(int index) {
+        return starts[check(index)];
+    }
+
+    public int getLength(int index) {
+        return lengths[check(index)];
+    }
+
+    public String getLiteral(int index) {
+        return source.subSequence(starts[check(index)], starts[index] + lengths[index]).toString();
+    }
+
+    /**
+     * Returns the value of a string or character literal as in {@link
+     * Token#getDecodedLiteral()}, slicing it from the source directly if the
+     * literal has no escapes.
+     */
+    public String getDecodedLiteral(int index) {
+        boolean escaped = (types[check(index)] & ESCAPED) != 0;
+        return Lexer.decode(source, starts[index], starts[index] + lengths[index], escaped);
+    }
+
+    /**
+     * Returns true if the literal of the token equals the given string, without
+     * creating the literal.
+     */
+    public boolean literalEquals(int index, String literal) {
+        if (lengths[check(index)] != literal.length()) {
+            return false;
+        }
+        int start = starts[index];
+        for (int i = 0; i < literal.length(); i++) {
+            if (source.charAt(start + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the {@link Token} at the given index.
+     */
+    public Token get(int index) {
+        boolean escaped = (types[check(index)] & ESCAPED) != 0;
+        return new Token(getType(index), getLiteral(index), getIndex(index), escaped, getNumber(index));
+    }
+
+    /**
+     * Returns a read-only list view creating each {@link Token} as it is
+     * accessed.
+     */
+    public List<Token> asList() {
+        return new AbstractList<Token>() {
+
+            @Override
+            public Token get(int index) {
+                return TokenBuffer.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    private int check(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size + ".");
+        }
+        return index;
+    }
+
+}
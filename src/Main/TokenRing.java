@@ -0,0 +1,128 @@
+package Main;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded single-producer, single-consumer queue of tokens used to overlap
+ * lexing and parsing, see {@link Parser#parsePipelined(Lexer)}. The producer
+ * thread calls {@link #produce(Iterator)} and the consumer reads the tokens
+ * as an {@link Iterator}.
+ *
+ * Each side only writes its own counter ({@code tail} for the producer and
+ * {@code head} for the consumer), so no locks are needed. Both sides also
+ * cache the last value they read of the other side's counter and only read it
+ * again when the ring looks full or empty.
+ */
+final class TokenRing implements Iterator<Token> {
+
+    /**
+     * The number of times a side spins before yielding the thread while
+     * waiting for the other side.
+     */
+    private static final int SPINS = 64;
+
+    private final Token[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean closed = false;
+    private volatile Throwable error = null;
+    private long producerHead = 0;
+    private long consumerTail = 0;
+
+    /**
+     * Creates a ring holding the given number of tokens, which must be a power
+     * of two.
+     */
+    TokenRing(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two.");
+        }
+        this.slots = new Token[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Puts every token from the given iterator into the ring, then closes it.
+     * An exception from the iterator closes the ring and is rethrown to the
+     * consumer once it has read the tokens before it.
+     */
+    void produce(Iterator<Token> tokens) {
+        try {
+            while (tokens.hasNext()) {
+                put(tokens.next());
+            }
+        } catch (RuntimeException | Error e) {
+            error = e;
+        } finally {
+            closed = true;
+        }
+    }
+
+    private void put(Token token) {
+        long position = tail.get();
+        for (int spins = 0; position - producerHead == slots.length; spins++) {
+            producerHead = head.get();
+            if (position - producerHead == slots.length) {
+                pause(spins);
+            }
+        }
+        slots[(int) position & mask] = token;
+        tail.lazySet(position + 1);
+    }
+
+    @Override
+    public boolean hasNext() {
+        long position = head.get();
+        for (int spins = 0; position == consumerTail; spins++) {
+            boolean closed = this.closed;
+            consumerTail = tail.get();
+            if (position != consumerTail) {
+                break;
+            } else if (closed) {
+                Throwable error = this.error;
+                if (error instanceof RuntimeException) {
+                    throw (RuntimeException) error;
+                } else if (error != null) {
+                    throw (Error) error;
+                }
+                return false;
+            }
+            pause(spins);
+        }
+        return true;
+    }
+
+    @Override
+    public Token next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        long position = head.get();
+        Token token = slots[(int) position & mask];
+        slots[(int) position & mask] = null;
+        head.lazySet(position + 1);
+        return token;
+    }
+
+    /**
+     * Reads the remaining tokens so the producer can finish, throwing its
+     * exception if it had one.
+     */
+    void drain() {
+        while (hasNext()) {
+            next();
+        }
+    }
+
+    private static void pause(int spins) {
+        if (spins < SPINS) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+}
@@ -1,20 +1,31 @@
 package Tests;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 //TODO: why do these need to be imported? How did teach automatically use these in project?
+import Main.Analysis;
 import Main.Analyzer;
 import Main.Ast;
+import Main.AstArena;
+import Main.AstInterner;
 import Main.Environment;
+import Main.IncrementalAnalyzer;
+import Main.Lexer;
+import Main.ParseException;
+import Main.Parser;
 import Main.Scope;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -315,6 +326,186 @@ public final class AnalyzerTests {
         );
     }
 
+    @Test
+    public void testLongBinaryExpression() {
+        Ast.Expr expr = new Ast.Expr.Literal(BigInteger.ZERO);
+        for (int i = 0; i < 100000; i++) {
+            expr = new Ast.Expr.Binary("+", expr, new Ast.Expr.Literal(BigInteger.ONE));
+        }
+        new Analyzer(new Scope(null)).visit(expr);
+        Assertions.assertEquals(Environment.Type.INTEGER, expr.getType());
+    }
+
+    @Test
+    public void testDeepExpression() {
+        Ast.Expr expr = new Ast.Expr.Literal(BigInteger.ONE);
+        for (int i = 0; i < 100000; i++) {
+            expr = new Ast.Expr.Binary("+", new Ast.Expr.Literal(BigInteger.ONE), new Ast.Expr.Group(
+                    new Ast.Expr.Binary("+", expr, new Ast.Expr.Literal(BigInteger.ONE))
+            ));
+        }
+        new Analyzer(new Scope(null)).visit(expr);
+        Assertions.assertEquals(Environment.Type.INTEGER, expr.getType());
+    }
+
+    @Test
+    public void testErrorStatement() {
+        List<ParseException> diagnostics = new ArrayList<>();
+        Ast.Source ast = new Parser(new Lexer("DEF main(): Integer DO\n" +
+                "    x = ;\n" +
+                "    print(1);\n" +
+                "END").lex()).parseSource(diagnostics);
+        Assertions.assertEquals(1, diagnostics.size());
+        new Analyzer(new Scope(null)).visit(ast);
+        Ast.Stmt.Expression print = (Ast.Stmt.Expression) ast.getMethods().get(0).getStatements().get(1);
+        Assertions.assertEquals(Environment.Type.NIL, print.getExpression().getType());
+    }
+
+    @Test
+    public void testArena() {
+        AstArena arena = AstArena.of(new Ast.Source(
+                Arrays.asList(new Ast.Field("x", "Integer", Optional.of(
+                        new Ast.Expr.Binary("+", new Ast.Expr.Literal(BigInteger.ONE), new Ast.Expr.Literal(BigInteger.TEN))
+                ))),
+                Arrays.asList()
+        ));
+        Analyzer analyzer = new Analyzer(new Scope(null));
+        analyzer.visit(arena.toAst(arena.getFirstChild(arena.getRoot())));
+        Assertions.assertEquals(Environment.Type.INTEGER, analyzer.getScope().lookupVariable("x").getType());
+    }
+
+    @Test
+    public void testArenaFormat() throws ParseException {
+        Ast.Source ast = new Parser(new Lexer("LET x: Integer = 1;\n" +
+                "DEF main(): Integer DO\n" +
+                "    LET y: Decimal = 2.0;\n" +
+                "    print(x + 1);\n" +
+                "END").lex()).parseSource();
+        Analyzer analyzer = new Analyzer(new Scope(null));
+        analyzer.visit(ast);
+        AstArena arena = AstArena.read(AstArena.ofAnalyzed(ast).toByteBuffer(), analyzer.getScope());
+        Assertions.assertTrue(arena.isAnalyzed());
+        Assertions.assertEquals(ast, arena.toAst());
+        //References are resolved in the scope, and only locals are recreated
+        int field = arena.getFirstChild(arena.getRoot());
+        int method = arena.getNextSibling(field);
+        int declaration = arena.getFirstChild(method);
+        int print = arena.getFirstChild(arena.getNextSibling(declaration));
+        Assertions.assertSame(analyzer.getScope().lookupVariable("x"), arena.getVariable(field));
+        Assertions.assertSame(analyzer.getScope().lookupFunction("main", 0), arena.getFunction(method));
+        Assertions.assertSame(analyzer.getScope().lookupFunction("print", 1), arena.getFunction(print));
+        Assertions.assertEquals(Environment.Type.DECIMAL, arena.getVariable(declaration).getType());
+        Assertions.assertSame(arena.getVariable(declaration), ((Ast.Stmt.Declaration) arena.toAst(declaration)).getVariable());
+        AstArena builtins = AstArena.read(AstArena.ofAnalyzed(ast).toByteBuffer());
+        Assertions.assertNotSame(analyzer.getScope().lookupVariable("x"), builtins.getVariable(field));
+        Assertions.assertEquals("System.out.println", builtins.getFunction(print).getJvmName());
+    }
+
+    @Test
+    public void testParallel() throws ParseException {
+        String input = "LET x: Integer = 1;\n" +
+                "DEF main(): Integer DO\n    print(x);\nEND\n" +
+                "DEF f() DO\n    print(x + 1);\nEND\n" +
+                "DEF g(): String DO\n    LET z = \"z\";\n    print(z + x);\nEND\n" +
+                "DEF h(): Integer DO\n    RETURN 1;\nEND";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(expected);
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new Analyzer(new Scope(null)).analyzeParallel(ast, pool);
+            Assertions.assertEquals(expected, ast);
+            Ast.Source invalid = new Parser(new Lexer(input.replace("print(x)", "print(u)").replace("x + 1", "v + 1")).lex()).parseSource();
+            RuntimeException exception = Assertions.assertThrows(RuntimeException.class,
+                    () -> new Analyzer(new Scope(null)).analyzeParallel(invalid, pool));
+            Assertions.assertEquals("The variable u is not defined in this scope.", exception.getMessage());
+            Assertions.assertEquals(1, exception.getSuppressed().length);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testAnalysis() throws ParseException {
+        String input = "LET x: Integer = 1;\n" +
+                "DEF main(): Integer DO\n    print(x);\n    RETURN 0;\nEND\n" +
+                "DEF g(): String DO\n    LET z = \"z\";\n    print(z + x);\nEND";
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        Analysis analysis = new Analysis();
+        new Analyzer(new Scope(null), analysis).visit(ast);
+        Assertions.assertThrows(IllegalStateException.class, () -> ast.getFields().get(0).getVariable());
+        Assertions.assertEquals(Environment.Type.INTEGER, analysis.getVariable(ast.getFields().get(0)).getType());
+        Ast.Expr.Function print = (Ast.Expr.Function) ((Ast.Stmt.Expression) ast.getMethods().get(1).getStatements().get(1)).getExpression();
+        Assertions.assertEquals("System.out.println", analysis.getFunction(print).getJvmName());
+        Assertions.assertEquals(Environment.Type.STRING, analysis.getType(print.getArguments().get(0)));
+        Assertions.assertEquals(Environment.Type.NIL, analysis.getType(print));
+        Analysis parallel = new Analysis();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new Analyzer(new Scope(null), parallel).analyzeParallel(new Parser(new Lexer(input).lex()).parseSource(), pool);
+        } finally {
+            pool.shutdown();
+        }
+        Assertions.assertEquals(analysis.size(), parallel.size());
+        //A shared constant has the same type wherever it appears
+        AstInterner interner = new AstInterner();
+        Ast.Expr first = interner.intern(new Parser(new Lexer("print(1 + 2)").lex()).parseExpression());
+        Ast.Expr second = interner.intern(new Parser(new Lexer("print(1 + 2 + 3)").lex()).parseExpression());
+        Analysis shared = new Analysis();
+        Analyzer analyzer = new Analyzer(new Scope(null), shared);
+        analyzer.visit(first);
+        analyzer.visit(second);
+        Ast.Expr constant = ((Ast.Expr.Function) first).getArguments().get(0);
+        Assertions.assertSame(constant, ((Ast.Expr.Binary) ((Ast.Expr.Function) second).getArguments().get(0)).getLeft());
+        Assertions.assertEquals(Environment.Type.INTEGER, shared.getType(constant));
+        Assertions.assertThrows(IllegalStateException.class, constant::getType);
+    }
+
+    @Test
+    public void testIncremental() throws ParseException {
+        Ast.Source first = new Parser(new Lexer("LET x: Integer = 1;\n" +
+                "DEF main(): Integer DO\n    print(1);\nEND\n" +
+                "DEF f() DO\n    print(x);\nEND\n" +
+                "DEF g() DO\n    f();\nEND").lex()).parseSource();
+        IncrementalAnalyzer analyzer = new IncrementalAnalyzer(new Scope(null));
+        analyzer.analyze(first);
+        Assertions.assertEquals(4, analyzer.getAnalyzedCount());
+        Ast.Method main = first.getMethods().get(0);
+        Ast.Method f = first.getMethods().get(1);
+        Ast.Method g = first.getMethods().get(2);
+        //Only the changed method is analyzed, and unchanged ones keep their results
+        Ast.Method edited = new Parser(new Lexer("DEF main(): Integer DO\n    print(x);\nEND").lex()).parseSource().getMethods().get(0);
+        analyzer.analyze(new Ast.Source(first.getFields(), Arrays.asList(edited, f, g)));
+        Assertions.assertEquals(1, analyzer.getAnalyzedCount());
+        Assertions.assertSame(analyzer.getScope().lookupVariable("x"), ((Ast.Expr.Access) ((Ast.Expr.Function) ((Ast.Stmt.Expression) edited.getStatements().get(0)).getExpression()).getArguments().get(0)).getVariable());
+        Assertions.assertSame(analyzer.getScope().lookupFunction("f", 0), f.getFunction());
+        //Changing a field analyzes it and its dependents (main and f through x), but not g since f keeps its function
+        Ast.Field field = new Ast.Field("x", "String", Optional.of(new Ast.Expr.Literal("x")));
+        analyzer.analyze(new Ast.Source(Arrays.asList(field), Arrays.asList(edited, f, g)));
+        Assertions.assertEquals(3, analyzer.getAnalyzedCount());
+        Assertions.assertEquals(Environment.Type.STRING, analyzer.getScope().lookupVariable("x").getType());
+        Assertions.assertSame(f.getFunction(), ((Ast.Expr.Function) ((Ast.Stmt.Expression) g.getStatements().get(0)).getExpression()).getFunction());
+        //Editing only the body of f analyzes f alone and keeps its function
+        Ast.Method body = new Parser(new Lexer("DEF f() DO\n    print(1);\nEND").lex()).parseSource().getMethods().get(0);
+        analyzer.analyze(new Ast.Source(Arrays.asList(field), Arrays.asList(edited, body, g)));
+        Assertions.assertEquals(1, analyzer.getAnalyzedCount());
+        Assertions.assertSame(f.getFunction(), body.getFunction());
+        //Changing the signature of f analyzes its callers
+        Ast.Method signature = new Parser(new Lexer("DEF f(): Integer DO\n    RETURN 1;\nEND").lex()).parseSource().getMethods().get(0);
+        analyzer.analyze(new Ast.Source(Arrays.asList(field), Arrays.asList(edited, signature, g)));
+        Assertions.assertEquals(2, analyzer.getAnalyzedCount());
+        Assertions.assertSame(signature.getFunction(), ((Ast.Expr.Function) ((Ast.Stmt.Expression) g.getStatements().get(0)).getExpression()).getFunction());
+        //Declaring a method which shadows a built-in analyzes its callers (main)
+        Ast.Method print = new Parser(new Lexer("DEF print(value: Any) DO\n    f();\nEND").lex()).parseSource().getMethods().get(0);
+        analyzer.analyze(new Ast.Source(Arrays.asList(field), Arrays.asList(edited, signature, g, print)));
+        Assertions.assertEquals(2, analyzer.getAnalyzedCount());
+        Assertions.assertSame(print.getFunction(), ((Ast.Expr.Function) ((Ast.Stmt.Expression) edited.getStatements().get(0)).getExpression()).getFunction());
+        //Removing a method fails, and the next analysis is in full
+        Assertions.assertThrows(RuntimeException.class, () -> analyzer.analyze(new Ast.Source(Arrays.asList(field), Arrays.asList(edited, g))));
+        analyzer.analyze(new Ast.Source(Arrays.asList(field), Arrays.asList(main, f, g)));
+        Assertions.assertEquals(4, analyzer.getAnalyzedCount());
+    }
+
     @ParameterizedTest(name = "{0}")
     @MethodSource
     public void testAccessExpression(String test, Ast.Expr.Access ast, Ast.Expr.Access expected) {
@@ -391,6 +582,29 @@ public final class AnalyzerTests {
         );
     }
 
+    @Test
+    void testRegisteredSubtypes() {
+        Environment.Type animal = new Environment.Type("AssignableAnimal", "Animal", new Scope(Environment.Type.ANY.getScope()));
+        Environment.Type dog = new Environment.Type("AssignableDog", "Dog", new Scope(animal.getScope()));
+        Environment.registerType(animal);
+        Environment.registerType(dog);
+        Assertions.assertDoesNotThrow(() -> Analyzer.requireAssignable(animal, dog));
+        Assertions.assertDoesNotThrow(() -> Analyzer.requireAssignable(Environment.Type.ANY, dog));
+        Assertions.assertThrows(RuntimeException.class, () -> Analyzer.requireAssignable(dog, animal));
+        Assertions.assertThrows(RuntimeException.class, () -> Analyzer.requireAssignable(Environment.Type.COMPARABLE, dog));
+        Assertions.assertEquals(0, Environment.Type.ANY.getId());
+        Assertions.assertEquals(animal.getId() + 1, dog.getId());
+        Assertions.assertSame(dog, Environment.getType(dog.getId()));
+        Assertions.assertSame(dog, Environment.getType("AssignableDog"));
+        //Types sharing a scope are each assignable to themselves and to each other
+        Environment.Type hound = new Environment.Type("AssignableHound", "Hound", dog.getScope());
+        Environment.registerType(hound);
+        Assertions.assertDoesNotThrow(() -> Analyzer.requireAssignable(dog, dog));
+        Assertions.assertDoesNotThrow(() -> Analyzer.requireAssignable(hound, hound));
+        Assertions.assertDoesNotThrow(() -> Analyzer.requireAssignable(dog, hound));
+        Assertions.assertDoesNotThrow(() -> Analyzer.requireAssignable(animal, hound));
+    }
+
     /**
      * Helper function for tests. If {@param expected} is {@code null}, analysis
      * is expected to throw a {@link RuntimeException}.
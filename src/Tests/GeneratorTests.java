@@ -1,14 +1,22 @@
 package Tests;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 //TODO: Find way for tests to use these automatically. Shouldn't need import.
+import Main.Analysis;
+import Main.Analyzer;
 import Main.Ast;
+import Main.AstArena;
 import Main.Environment;
 import Main.Generator;
+import Main.Lexer;
+import Main.ParseException;
+import Main.Parser;
+import Main.Scope;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -57,6 +65,55 @@ public class GeneratorTests {
                                 "",
                                 "}"
                         )
+                ),
+                Arguments.of("Loops",
+                        // DEF main(): Integer DO
+                        //     WHILE flag DO
+                        //         x = 1;
+                        //     END
+                        //     FOR i IN list DO
+                        //         print(i);
+                        //     END
+                        //     RETURN 0;
+                        // END
+                        new Ast.Source(
+                                Arrays.asList(),
+                                Arrays.asList(init(new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(
+                                        new Ast.Stmt.While(
+                                                init(new Ast.Expr.Access(Optional.empty(), "flag"), ast -> ast.setVariable(new Environment.Variable("flag", "flag", Environment.Type.BOOLEAN, Environment.NIL))),
+                                                Arrays.asList(new Ast.Stmt.Assignment(
+                                                        init(new Ast.Expr.Access(Optional.empty(), "x"), ast -> ast.setVariable(new Environment.Variable("x", "x", Environment.Type.INTEGER, Environment.NIL))),
+                                                        init(new Ast.Expr.Literal(BigInteger.ONE), ast -> ast.setType(Environment.Type.INTEGER))
+                                                ))
+                                        ),
+                                        new Ast.Stmt.For("i",
+                                                init(new Ast.Expr.Access(Optional.empty(), "list"), ast -> ast.setVariable(new Environment.Variable("list", "list", Environment.Type.INTEGER_ITERABLE, Environment.NIL))),
+                                                Arrays.asList(new Ast.Stmt.Expression(init(new Ast.Expr.Function(Optional.empty(), "print", Arrays.asList(
+                                                        init(new Ast.Expr.Access(Optional.empty(), "i"), ast -> ast.setVariable(new Environment.Variable("i", "i", Environment.Type.INTEGER, Environment.NIL)))
+                                                )), ast -> ast.setFunction(new Environment.Function("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL)))))
+                                        ),
+                                        new Ast.Stmt.Return(init(new Ast.Expr.Literal(BigInteger.ZERO), ast -> ast.setType(Environment.Type.INTEGER)))
+                                )), ast -> ast.setFunction(new Environment.Function("main", "main", Arrays.asList(), Environment.Type.INTEGER, args -> Environment.NIL))))
+                        ),
+                        String.join(System.lineSeparator(),
+                                "public class Main {",
+                                "",
+                                "    public static void main(String[] args) {",
+                                "        System.exit(new Main().main());",
+                                "    }",
+                                "",
+                                "    int main() {",
+                                "        while (flag) {",
+                                "            x = 1;",
+                                "        }",
+                                "        for (int i : list) {",
+                                "            System.out.println(i);",
+                                "        }",
+                                "        return 0;",
+                                "    }",
+                                "",
+                                "}"
+                        )
                 )
         );
     }
@@ -156,6 +213,63 @@ public class GeneratorTests {
         );
     }
 
+    @Test
+    void testLongBinaryExpression() {
+        Ast.Expr expr = init(new Ast.Expr.Literal(BigInteger.ZERO), ast -> ast.setType(Environment.Type.INTEGER));
+        StringBuilder expected = new StringBuilder("0");
+        for (int i = 0; i < 100000; i++) {
+            Ast.Expr.Literal one = init(new Ast.Expr.Literal(BigInteger.ONE), ast -> ast.setType(Environment.Type.INTEGER));
+            expr = new Ast.Expr.Binary("+", expr, one);
+            expected.append(" + 1");
+        }
+        test(expr, expected.toString());
+    }
+
+    @Test
+    void testDeepExpression() {
+        Ast.Expr expr = init(new Ast.Expr.Literal(BigInteger.ONE), ast -> ast.setType(Environment.Type.INTEGER));
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            Ast.Expr.Literal one = init(new Ast.Expr.Literal(BigInteger.ONE), ast -> ast.setType(Environment.Type.INTEGER));
+            expr = new Ast.Expr.Binary("+", one, new Ast.Expr.Group(expr));
+            expected.append("1 + (");
+        }
+        expected.append("1");
+        for (int i = 0; i < 100000; i++) {
+            expected.append(")");
+        }
+        test(expr, expected.toString());
+    }
+
+    @Test
+    void testArena() throws ParseException {
+        String input = "LET x: Integer = 1;\nLET name: String;\n" +
+                "DEF main(): Integer DO\n" +
+                "    LET y: Decimal;\n    LET z = \"z\";\n" +
+                "    IF TRUE DO\n        print(x + (1 - 2));\n    ELSE\n        print('c');\n    END\n" +
+                "    x = 2;\n    print(FALSE OR TRUE);\n" +
+                "    RETURN 0;\nEND\n" +
+                "DEF f(a: Integer, b: String) DO\nEND";
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        StringWriter expected = new StringWriter();
+        new Generator(new PrintWriter(expected)).visit(ast);
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).generate(AstArena.ofAnalyzed(ast));
+        Assertions.assertEquals(expected.toString(), writer.toString());
+        Ast.Source unanalyzed = new Parser(new Lexer(input).lex()).parseSource();
+        Analysis analysis = new Analysis();
+        new Analyzer(new Scope(null), analysis).visit(unanalyzed);
+        writer = new StringWriter();
+        new Generator(new PrintWriter(writer), analysis).visit(unanalyzed);
+        Assertions.assertEquals(expected.toString(), writer.toString());
+    }
+
+    @Test
+    void testErrorStatement() {
+        test(new Ast.Stmt.Error("Expected ';'", 12), "// Syntax error at 12: Expected ';'");
+    }
+
     @ParameterizedTest(name = "{0}")
     @MethodSource
     void testFunctionExpression(String test, Ast.Expr.Function ast, String expected) {
@@ -191,6 +305,15 @@ public class GeneratorTests {
         StringWriter writer = new StringWriter();
         new Generator(new PrintWriter(writer)).visit(ast);
         Assertions.assertEquals(expected, writer.toString());
+        if (ast instanceof Ast.Source) {
+            //Generating from the columns of an arena writes the same code
+            AstArena arena = AstArena.ofAnalyzed((Ast.Source) ast);
+            for (AstArena source : Arrays.asList(arena, AstArena.read(arena.toByteBuffer()))) {
+                StringWriter arenaWriter = new StringWriter();
+                new Generator(new PrintWriter(arenaWriter)).generate(source);
+                Assertions.assertEquals(expected, arenaWriter.toString());
+            }
+        }
     }
 
     /**
@@ -328,6 +328,27 @@ final class InterpreterTests {
         );
     }
 
+    @Test
+    void testLongBinaryExpression() {
+        Ast.Expr expr = new Ast.Expr.Literal(BigInteger.ZERO);
+        for (int i = 0; i < 100000; i++) {
+            expr = new Ast.Expr.Binary("+", expr, new Ast.Expr.Literal(BigInteger.ONE));
+        }
+        test(expr, BigInteger.valueOf(100000), new Scope(null));
+    }
+
+    @Test
+    void testDeepExpression() {
+        Ast.Expr nested = new Ast.Expr.Literal(BigInteger.ONE);
+        Ast.Expr groups = new Ast.Expr.Literal(BigInteger.ONE);
+        for (int i = 0; i < 100000; i++) {
+            nested = new Ast.Expr.Binary("+", new Ast.Expr.Literal(BigInteger.ONE), new Ast.Expr.Group(nested));
+            groups = new Ast.Expr.Group(groups);
+        }
+        test(nested, BigInteger.valueOf(100001), new Scope(null));
+        test(groups, BigInteger.ONE, new Scope(null));
+    }
+
     @ParameterizedTest
     @MethodSource
     void testAccessExpression(String test, Ast ast, Object expected) {
@@ -2,17 +2,27 @@ package Tests;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 //TODO: Read other test
+import Main.Edit;
 import Main.Lexer;
+import Main.LineMap;
+import Main.MappedSource;
 import Main.ParseException;
 import Main.Token;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class LexerTests {
@@ -134,10 +144,33 @@ public class LexerTests {
                         new Token(Token.Type.STRING, "\"Hello, World!\"", 6),
                         new Token(Token.Type.OPERATOR, ")", 21),
                         new Token(Token.Type.OPERATOR, ";", 22)
+                )),
+                Arguments.of("Example 3", "x <= 10", Arrays.asList(
+                        new Token(Token.Type.IDENTIFIER, "x", 0),
+                        new Token(Token.Type.OPERATOR, "<=", 2),
+                        new Token(Token.Type.INTEGER, "10", 5)
                 ))
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testOpcode(String test, String input, Token.Opcode expected) {
+        Assertions.assertEquals(expected, new Lexer(input).lexToken().getOpcode());
+        Assertions.assertEquals(expected, new Lexer(input).lexBuffer().getOpcode(0));
+    }
+
+    private static Stream<Arguments> testOpcode() {
+        return Stream.of(
+                Arguments.of("Keyword", "LET", Token.Opcode.LET),
+                Arguments.of("Operator", "<=", Token.Opcode.LESS_EQUAL),
+                Arguments.of("Keyword Prefix", "LETTER", Token.Opcode.NONE),
+                Arguments.of("Lowercase Keyword", "let", Token.Opcode.NONE),
+                Arguments.of("Identifier", "name", Token.Opcode.NONE),
+                Arguments.of("String", "\"LET\"", Token.Opcode.NONE)
+        );
+    }
+
     @Test
     void testException() {
         ParseException exception = Assertions.assertThrows(ParseException.class,
@@ -145,6 +178,106 @@ public class LexerTests {
         Assertions.assertEquals(13, exception.getIndex());
     }
 
+    @Test
+    void testStream() {
+        //long enough to force the streaming buffer to be compacted
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            input.append("LET x").append(i).append(" = \"value ").append(i).append("\" + 1.5;\n");
+        }
+        List<Token> expected = new Lexer(input.toString()).lex();
+        Assertions.assertEquals(expected, new Lexer(new StringReader(input.toString())).stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    void testStreamException() {
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Lexer(new StringReader("LET x = \"unterminated")).stream().count());
+        Assertions.assertEquals(21, exception.getIndex());
+    }
+
+    @ParameterizedTest
+    @MethodSource("testExamples")
+    void testBuffer(String test, String input, List<Token> expected) {
+        Assertions.assertEquals(expected, new Lexer(input).lexBuffer().asList());
+    }
+
+    @Test
+    void testParallel() {
+        //several times the minimum chunk size, so the input is split
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            input.append("LET x").append(i).append(" = 'c' + \"a b\\n\" - -1.5;\r\n");
+        }
+        Assertions.assertEquals(new Lexer(input.toString()).lex(), new Lexer(input.toString()).lexParallel());
+        input.append("\"unterminated\n");
+        for (int i = 0; i < 10000; i++) {
+            input.append("'empty''\n");
+        }
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Lexer(input.toString()).lexParallel());
+        Assertions.assertEquals(input.indexOf("\"unterminated") + 14, exception.getIndex());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRelex(String test, String input, Edit edit) {
+        List<Token> expected = new Lexer(edit.apply(input)).lex();
+        Assertions.assertEquals(expected, Lexer.relex(input, new Lexer(input).lex(), edit));
+    }
+
+    private static Stream<Arguments> testRelex() {
+        String input = "LET x = 1;\nDEF main() DO\n    print(\"a b\");\nEND\n";
+        return Stream.of(
+                Arguments.of("Insert Character", input, new Edit(5, 0, "y")),
+                Arguments.of("Remove Token", input, new Edit(8, 2, "")),
+                Arguments.of("Split Line", input, new Edit(27, 0, "\n")),
+                Arguments.of("Join Lines", input, new Edit(10, 1, " ")),
+                Arguments.of("Replace Character", input, new Edit(31, 1, "n")),
+                Arguments.of("Start", input, new Edit(0, 0, "LET y = 2;")),
+                Arguments.of("End", input, new Edit(input.length(), 0, "x"))
+        );
+    }
+
+    @Test
+    void testRelexRepeated() {
+        String input = "LET x = 1;\nDEF main() DO\n    print(\"a b\");\nEND\n";
+        List<Token> tokens = new Lexer(input).lex();
+        for (int i = 0; i < 40; i++) {
+            Edit edit = new Edit(i % 2 == 0 ? 0 : input.indexOf("print"), 0, i % 2 == 0 ? "LET y" + i + " = " + i + ";\n" : "x = " + i + "; ");
+            tokens = Lexer.relex(input, tokens, edit);
+            input = edit.apply(input);
+            Assertions.assertEquals(new Lexer(input).lex(), tokens);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testLineMap(String test, String input, int index, String expected) {
+        Assertions.assertEquals(expected, new LineMap(input).format(index));
+    }
+
+    private static Stream<Arguments> testLineMap() {
+        String input = "LET x = 1;\nLET y = 2;\r\n\r\nprint(x);\rEND";
+        return Stream.of(
+                Arguments.of("Start", input, 0, "1:1"),
+                Arguments.of("First Line", input, input.indexOf("x"), "1:5"),
+                Arguments.of("Line Feed", input, input.indexOf("\n"), "1:11"),
+                Arguments.of("Second Line", input, input.indexOf("y"), "2:5"),
+                Arguments.of("Carriage Return Line Feed", input, input.indexOf("\r\n") + 1, "2:12"),
+                Arguments.of("Empty Line", input, input.indexOf("\r\n") + 2, "3:1"),
+                Arguments.of("Carriage Return", input, input.indexOf("END"), "5:1"),
+                Arguments.of("End", input, input.length(), "5:4")
+        );
+    }
+
+    @Test
+    void testMapped(@TempDir Path directory) throws IOException {
+        String input = "LET x = \"caf\u00e9\";\nDEF main() DO print(x); END";
+        Path file = Files.write(directory.resolve("source.plc"), input.getBytes(StandardCharsets.ISO_8859_1));
+        Assertions.assertEquals(new Lexer(input).lex(), new Lexer(MappedSource.map(file)).lex());
+    }
+
     /**
      * Tests that lexing the input through {@link Lexer#lexToken()} produces a
      * single token with the expected type and literal matching the input.
@@ -2,22 +2,41 @@ package Tests;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 //TODO: Read other tests. Remember to remove call tags.
 import Main.Ast;
+import Main.AstArena;
+import Main.AstInterner;
+import Main.Edit;
+import Main.Environment;
+import Main.Lexer;
+import Main.ParseCache;
 import Main.ParseException;
 import Main.Parser;
 import Main.Token;
+import Main.TokenBuffer;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -309,10 +328,39 @@ final class ParserTests {
                 Arguments.of("Escape Character",
                         Arrays.asList(new Token(Token.Type.STRING, "\"Hello,\\nWorld!\"", 0)),
                         new Ast.Expr.Literal("Hello,\nWorld!")
+                ),
+                Arguments.of("Escaped Quotes",
+                        Arrays.asList(new Token(Token.Type.STRING, "\"say \\\"hi\\\"\\t\\\\\"", 0)),
+                        new Ast.Expr.Literal("say \"hi\"\t\\")
+                ),
+                Arguments.of("Escaped Character",
+                        Arrays.asList(new Token(Token.Type.CHARACTER, "'\\''", 0)),
+                        new Ast.Expr.Literal('\'')
                 )
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testNumberLiteral(String test, String input, Object expected) {
+        Ast.Expr.Literal literal = new Ast.Expr.Literal(expected);
+        Assertions.assertEquals(literal, new Parser(new Lexer(input).lex()).parseExpression());
+        Assertions.assertEquals(literal, new Parser(new Lexer(input).lexBuffer()).parseExpression());
+    }
+
+    private static Stream<Arguments> testNumberLiteral() {
+        return Stream.of(
+                Arguments.of("Integer", "1", new BigInteger("1")),
+                Arguments.of("Negative Integer", "-42", new BigInteger("-42")),
+                Arguments.of("Large Integer", "-12345678901234567890", new BigInteger("-12345678901234567890")),
+                Arguments.of("Decimal", "2.0", new BigDecimal("2.0")),
+                Arguments.of("Trailing Zeros", "+2.500", new BigDecimal("2.5")),
+                Arguments.of("Small Decimal", "0.0001", new BigDecimal("1.0E-4")),
+                Arguments.of("Large Decimal", "12345678.9", new BigDecimal("1.23456789E7")),
+                Arguments.of("Long Decimal", "3.14159265358979323846", new BigDecimal("3.141592653589793"))
+        );
+    }
+
     @ParameterizedTest
     @MethodSource
     void testGroupExpression(String test, List<Token> tokens, Ast.Expr.Group expected) {
@@ -402,6 +450,50 @@ final class ParserTests {
                                 new Ast.Expr.Access(Optional.empty(), "expr1"),
                                 new Ast.Expr.Access(Optional.empty(), "expr2")
                         )
+                ),
+                Arguments.of("Binary Left Associative",
+                        Arrays.asList(
+                                //expr1 - expr2 - expr3
+                                new Token(Token.Type.IDENTIFIER, "expr1", 0),
+                                new Token(Token.Type.OPERATOR, "-", 6),
+                                new Token(Token.Type.IDENTIFIER, "expr2", 8),
+                                new Token(Token.Type.OPERATOR, "-", 14),
+                                new Token(Token.Type.IDENTIFIER, "expr3", 16)
+                        ),
+                        new Ast.Expr.Binary("-",
+                                new Ast.Expr.Binary("-",
+                                        new Ast.Expr.Access(Optional.empty(), "expr1"),
+                                        new Ast.Expr.Access(Optional.empty(), "expr2")
+                                ),
+                                new Ast.Expr.Access(Optional.empty(), "expr3")
+                        )
+                ),
+                Arguments.of("Binary Precedence",
+                        Arrays.asList(
+                                //expr1 OR expr2 + expr3 * expr4 < expr5
+                                new Token(Token.Type.IDENTIFIER, "expr1", 0),
+                                new Token(Token.Type.IDENTIFIER, "OR", 6),
+                                new Token(Token.Type.IDENTIFIER, "expr2", 9),
+                                new Token(Token.Type.OPERATOR, "+", 15),
+                                new Token(Token.Type.IDENTIFIER, "expr3", 17),
+                                new Token(Token.Type.OPERATOR, "*", 23),
+                                new Token(Token.Type.IDENTIFIER, "expr4", 25),
+                                new Token(Token.Type.OPERATOR, "<", 31),
+                                new Token(Token.Type.IDENTIFIER, "expr5", 33)
+                        ),
+                        new Ast.Expr.Binary("OR",
+                                new Ast.Expr.Access(Optional.empty(), "expr1"),
+                                new Ast.Expr.Binary("<",
+                                        new Ast.Expr.Binary("+",
+                                                new Ast.Expr.Access(Optional.empty(), "expr2"),
+                                                new Ast.Expr.Binary("*",
+                                                        new Ast.Expr.Access(Optional.empty(), "expr3"),
+                                                        new Ast.Expr.Access(Optional.empty(), "expr4")
+                                                )
+                                        ),
+                                        new Ast.Expr.Access(Optional.empty(), "expr5")
+                                )
+                        )
                 )
         );
     }
@@ -556,6 +648,426 @@ final class ParserTests {
                         ))
                 ));
         test(input, expected, Parser::parseSource);
+        Assertions.assertEquals(expected, new Parser(input.iterator()).parseSource());
+    }
+
+    @Test
+    void testDeepExpression() {
+        StringBuilder builder = new StringBuilder("x");
+        for (int i = 0; i < 100000; i++) {
+            builder.append(" + 1");
+        }
+        Ast.Expr expr = new Parser(new Lexer(builder.toString()).lexBuffer()).parseExpression();
+        int depth = 0;
+        while (expr instanceof Ast.Expr.Binary) {
+            Assertions.assertEquals(new Ast.Expr.Literal(BigInteger.ONE), ((Ast.Expr.Binary) expr).getRight());
+            expr = ((Ast.Expr.Binary) expr).getLeft();
+            depth++;
+        }
+        Assertions.assertEquals(100000, depth);
+        Assertions.assertEquals(new Ast.Expr.Access(Optional.empty(), "x"), expr);
+
+        String groups = String.join("", Collections.nCopies(100000, "(")) + "x" + String.join("", Collections.nCopies(100000, ")"));
+        expr = new Parser(new Lexer(groups).lexBuffer()).parseExpression();
+        for (depth = 0; expr instanceof Ast.Expr.Group; depth++) {
+            expr = ((Ast.Expr.Group) expr).getExpression();
+        }
+        Assertions.assertEquals(100000, depth);
+        Assertions.assertEquals(new Ast.Expr.Access(Optional.empty(), "x"), expr);
+    }
+
+    @Test
+    void testTokenBuffer() {
+        String input = "LET first: Integer = 1;\n" +
+                "DEF main(): Integer DO\n" +
+                "    WHILE first != 10 DO\n" +
+                "        print(first);\n" +
+                "        first = first + 1;\n" +
+                "    END\n" +
+                "END";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        Assertions.assertEquals(expected, new Parser(new Lexer(input).lexBuffer()).parseSource());
+    }
+
+    @Test
+    void testTokenBufferEscapes() {
+        String input = "LET s: String = \"a\\nb\";\n" +
+                "LET c: Character = '\\'';\n";
+        TokenBuffer buffer = new Lexer(input).lexBuffer();
+        Assertions.assertEquals(Token.Type.STRING, buffer.getType(5));
+        Assertions.assertEquals("a\nb", buffer.getDecodedLiteral(5));
+        Assertions.assertEquals(Token.Type.CHARACTER, buffer.getType(12));
+        Assertions.assertEquals("'", buffer.getDecodedLiteral(12));
+        Ast.Source expected = new Ast.Source(
+                Arrays.asList(
+                        new Ast.Field("s", "String", Optional.of(new Ast.Expr.Literal("a\nb"))),
+                        new Ast.Field("c", "Character", Optional.of(new Ast.Expr.Literal('\'')))
+                ),
+                Arrays.asList()
+        );
+        Assertions.assertEquals(expected, new Parser(buffer).parseSource());
+    }
+
+    @Test
+    void testPipelined() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            builder.append("LET field").append(i).append(": Integer = ").append(i).append(" + 1;\n");
+        }
+        for (int i = 0; i < 2000; i++) {
+            builder.append("DEF method").append(i).append("(x: Integer): Integer DO\n")
+                    .append("    print(\"method\", x * ").append(i).append(");\n")
+                    .append("    RETURN x;\n")
+                    .append("END\n");
+        }
+        String input = builder.toString();
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        Assertions.assertEquals(expected, Parser.parsePipelined(new Lexer(input)));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Assertions.assertEquals(expected, Parser.parsePipelined(new Lexer(input), executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testPipelinedException() {
+        StringBuilder builder = new StringBuilder("LET = 1;\n");
+        for (int i = 0; i < 5000; i++) {
+            builder.append("LET field").append(i).append(": Integer = ").append(i).append(";\n");
+        }
+        String parse = builder.toString();
+        String lex = parse + "LET name: String = \"unterminated;\n";
+        Assertions.assertEquals(4, Assertions.assertThrows(ParseException.class,
+                () -> Parser.parsePipelined(new Lexer(parse))).getIndex());
+        int expected = Assertions.assertThrows(ParseException.class, () -> new Lexer(lex).lex()).getIndex();
+        Assertions.assertEquals(expected, Assertions.assertThrows(ParseException.class,
+                () -> Parser.parsePipelined(new Lexer(lex))).getIndex());
+    }
+
+    @Test
+    void testParallel() {
+        StringBuilder builder = new StringBuilder("LET count: Integer = 0;\n");
+        for (int i = 0; i < 3000; i++) {
+            builder.append("DEF method").append(i).append("(x: Integer): Integer DO\n")
+                    .append("    IF x < ").append(i).append(" DO\n")
+                    .append("        WHILE x != 0 DO x = x - 1; END\n")
+                    .append("    ELSE\n")
+                    .append("        FOR y IN range(0, x) DO print(y); END\n")
+                    .append("    END\n")
+                    .append("    RETURN x * 2;\n")
+                    .append("END\n");
+        }
+        String input = builder.toString();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+            Assertions.assertEquals(expected, new Parser(new Lexer(input).lex()).parseSourceParallel(pool));
+            Assertions.assertEquals(expected, new Parser(new Lexer(input).lexBuffer()).parseSourceParallel(pool));
+            String identifier = input + "DEF end() DO\n    x = END;\nEND\n" + input.substring(input.indexOf("DEF"));
+            Assertions.assertEquals(new Parser(new Lexer(identifier).lex()).parseSource(),
+                    new Parser(new Lexer(identifier).lex()).parseSourceParallel(pool));
+            String invalid = input + "DEF invalid() DO\n    x = ;\nEND\n" + input.substring(input.indexOf("DEF"));
+            Assertions.assertEquals(invalid.indexOf("= ;") + 2, Assertions.assertThrows(ParseException.class,
+                    () -> new Parser(new Lexer(invalid).lex()).parseSourceParallel(pool)).getIndex());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testReparse(String test, Edit edit, List<Boolean> reused) {
+        String input = "LET x: Integer = 1;\n" +
+                "LET y: Integer = 2;\n" +
+                "DEF first(): Integer DO\n" +
+                "    RETURN x;\n" +
+                "END\n" +
+                "DEF second(a: Integer): Integer DO\n" +
+                "    IF a > 0 DO RETURN a; END\n" +
+                "    RETURN 0;\n" +
+                "END\n" +
+                "DEF third() DO\n" +
+                "    print(y);\n" +
+                "END\n";
+        List<Token> tokens = new Lexer(input).lex();
+        Ast.Source previous = new Parser(tokens).parseSource();
+        List<Token> edited = Lexer.relex(input, tokens, edit);
+        Ast.Source result = Parser.reparse(previous, tokens, edited, edit);
+        Assertions.assertEquals(new Parser(new Lexer(edit.apply(input)).lex()).parseSource(), result);
+        List<Ast> before = new ArrayList<>(previous.getFields());
+        before.addAll(previous.getMethods());
+        List<Ast> after = new ArrayList<>(result.getFields());
+        after.addAll(result.getMethods());
+        for (int i = 0; i < before.size(); i++) {
+            Ast declaration = before.get(i);
+            Assertions.assertEquals(reused.get(i), after.stream().anyMatch(ast -> ast == declaration), "Declaration " + i);
+        }
+    }
+
+    private static Stream<Arguments> testReparse() {
+        return Stream.of(
+                Arguments.of("Method Body", new Edit(158, 1, "1"),
+                        Arrays.asList(true, true, true, false, true)),
+                Arguments.of("Field Value", new Edit(37, 1, "3"),
+                        Arrays.asList(true, false, true, true, true)),
+                Arguments.of("Insert Method", new Edit(82, 0, "DEF added() DO\nEND\n"),
+                        Arrays.asList(true, true, true, false, true)),
+                Arguments.of("Adjacent", new Edit(81, 0, "\n"),
+                        Arrays.asList(true, true, false, true, true)),
+                Arguments.of("Remove Method", new Edit(82, 82, ""),
+                        Arrays.asList(true, true, true, false, true)),
+                Arguments.of("Split Method", new Edit(64, 0, "END\nDEF inserted() DO\n"),
+                        Arrays.asList(true, true, false, true, true)),
+                Arguments.of("Merge Methods", new Edit(78, 39, ""),
+                        Arrays.asList(true, true, false, false, true))
+        );
+    }
+
+    @Test
+    void testReparseRepeated() {
+        String input = "LET x: Integer = 1;\n" +
+                "DEF first() DO\n" +
+                "    print(x);\n" +
+                "END\n" +
+                "DEF last() DO\n" +
+                "    print(x);\n" +
+                "END\n";
+        List<Token> tokens = new Lexer(input).lex();
+        Ast.Source source = new Parser(tokens).parseSource();
+        Ast.Method last = source.getMethods().get(1);
+        //Each edit inserts text before the first occurrence of an anchor
+        String[][] edits = {
+                {"    print", "END\nDEF split() DO\n"},
+                {"LET", "LET y: Integer = 2;\n"},
+                {"END", "    x = 2;\n"},
+                {"    print", "    print(x);\n"}
+        };
+        for (String[] insert : edits) {
+            Edit edit = new Edit(input.indexOf(insert[0]), 0, insert[1]);
+            List<Token> edited = Lexer.relex(input, tokens, edit);
+            source = Parser.reparse(source, tokens, edited, edit);
+            input = edit.apply(input);
+            tokens = edited;
+            Assertions.assertEquals(new Parser(new Lexer(input).lex()).parseSource(), source);
+            Assertions.assertSame(last, source.getMethods().get(source.getMethods().size() - 1));
+        }
+    }
+
+    @Test
+    void testRecovery() {
+        String input = "LET x: Integer = ;\n" +
+                "LET y: Integer = 2;\n" +
+                "DEF main(): Integer DO\n" +
+                "    x = ;\n" +
+                "    IF y > 0 DO\n" +
+                "        print(y)\n" +
+                "    END\n" +
+                "    RETURN 0;\n" +
+                "END\n" +
+                "DEF broken( DO\n" +
+                "    print(1);\n" +
+                "END\n" +
+                "DEF last() DO\n" +
+                "    print(2);\n" +
+                "END\n";
+        List<ParseException> diagnostics = new ArrayList<>();
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource(diagnostics);
+        Assertions.assertEquals(Arrays.asList(
+                input.indexOf("= ;") + 2,
+                input.indexOf("x = ;") + 4,
+                input.indexOf("END"),
+                input.indexOf("( DO") + 2
+        ), diagnostics.stream().map(ParseException::getIndex).collect(Collectors.toList()));
+        Ast.Expr.Access y = new Ast.Expr.Access(Optional.empty(), "y");
+        Assertions.assertEquals(new Ast.Source(
+                Arrays.asList(new Ast.Field("y", "Integer", Optional.of(new Ast.Expr.Literal(new BigInteger("2"))))),
+                Arrays.asList(
+                        new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(
+                                new Ast.Stmt.Error("Could not Parse PrimaryExpr", input.indexOf("x = ;") + 4),
+                                new Ast.Stmt.If(
+                                        new Ast.Expr.Binary(">", y, new Ast.Expr.Literal(new BigInteger("0"))),
+                                        Arrays.asList(new Ast.Stmt.Error("Expected Semicolon", input.indexOf("END"))),
+                                        Arrays.asList()
+                                ),
+                                new Ast.Stmt.Return(new Ast.Expr.Literal(new BigInteger("0")))
+                        )),
+                        new Ast.Method("last", Arrays.asList(), Arrays.asList(), Optional.empty(), Arrays.asList(
+                                new Ast.Stmt.Expression(new Ast.Expr.Function(Optional.empty(), "print",
+                                        Arrays.asList(new Ast.Expr.Literal(new BigInteger("2")))))
+                        ))
+                )
+        ), source);
+    }
+
+    @Test
+    void testRecoveryUnterminated() {
+        String input = "DEF main() DO\n" +
+                "    WHILE TRUE DO\n" +
+                "        x = ;\n" +
+                "DEF other() DO\n" +
+                "END";
+        List<ParseException> diagnostics = new ArrayList<>();
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource(diagnostics);
+        Assertions.assertEquals(Arrays.asList(input.indexOf("= ;") + 2, input.indexOf("DEF other")),
+                diagnostics.stream().map(ParseException::getIndex).collect(Collectors.toList()));
+        Assertions.assertEquals(1, source.getMethods().size());
+        Assertions.assertEquals("other", source.getMethods().get(0).getName());
+    }
+
+    @Test
+    void testArena() {
+        String input = "LET x: Integer = 1 + 2 * 3;\nLET y: Decimal;\n" +
+                "DEF main(a: Decimal, b: String): String DO\n" +
+                "    IF a == 1.5 DO\n        RETURN \"\\n\";\n    ELSE\n        x = ;\n    END\n" +
+                "    FOR i IN list DO\n        LET c = 'c';\n    END\n" +
+                "    WHILE (a) DO\n        f(NIL, FALSE, 12345678901234567890).g = obj.h(10.0);\n    END\n" +
+                "END\nDEF f() DO\n    log(\"string\");\nEND";
+        List<ParseException> diagnostics = new ArrayList<>();
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource(diagnostics);
+        Assertions.assertEquals(1, diagnostics.size());
+        AstArena arena = AstArena.of(expected);
+        Assertions.assertEquals(expected, arena.toAst());
+        int field = arena.getFirstChild(arena.getRoot());
+        Assertions.assertEquals(AstArena.Kind.FIELD, arena.getKind(field));
+        Assertions.assertEquals("x", arena.getName(field));
+        Assertions.assertEquals("Integer", arena.getTypeName(field));
+        Assertions.assertEquals("+", arena.getOperator(arena.getFirstChild(field)));
+        int method = arena.getNextSibling(arena.getNextSibling(field));
+        Assertions.assertEquals(AstArena.Kind.METHOD, arena.getKind(method));
+        Assertions.assertEquals(expected.getMethods().get(0), arena.toAst(method));
+        Assertions.assertEquals(expected.getMethods().get(0).getStatements().get(0), arena.toAst(arena.getFirstChild(method)));
+        Assertions.assertEquals(2, arena.getParameterCount(method));
+        Assertions.assertEquals("b", arena.getParameter(method, 1));
+        Assertions.assertEquals("String", arena.getParameterTypeName(method, 1));
+        //Results set on the side column are kept when encoded, and only on the nodes they were set on
+        Assertions.assertFalse(arena.isAnalyzed());
+        int literal = arena.getFirstChild(arena.getFirstChild(field));
+        arena.setType(literal, Environment.Type.INTEGER);
+        Assertions.assertTrue(arena.isAnalyzed());
+        AstArena read = AstArena.read(arena.toByteBuffer());
+        Assertions.assertSame(Environment.Type.INTEGER, read.getType(literal));
+        Assertions.assertThrows(IllegalStateException.class, () -> read.getType(arena.getFirstChild(field)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> read.getVariable(literal));
+    }
+
+    @Test
+    void testArenaFormat() {
+        String input = "LET x: Integer = 1 + 2 * 3;\nDEF main(a: Decimal): String DO\n" +
+                "    IF a == -1.5 DO\n        RETURN \"\u00e9\\n\";\n    END\n" +
+                "    f(NIL, TRUE, 'c', 12345678901234567890).g = obj.h(10.0);\nEND";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        ByteBuffer buffer = AstArena.of(expected).toByteBuffer();
+        ByteBuffer padded = ByteBuffer.allocateDirect(buffer.remaining() + 3);
+        padded.position(3);
+        padded.put(buffer).position(3);
+        AstArena arena = AstArena.read(padded);
+        Assertions.assertFalse(arena.isAnalyzed());
+        Assertions.assertEquals(expected, arena.toAst());
+        Assertions.assertEquals(expected, AstArena.read(arena.toByteBuffer()).toAst());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstArena.read(ByteBuffer.allocate(64)));
+    }
+
+    @Test
+    void testStructuralHash() {
+        Ast.Expr first = new Parser(new Lexer("f(1 + 2 * x, \"s\", obj.y)").lex()).parseExpression();
+        Ast.Expr second = new Parser(new Lexer("f(1 + 2 * x, \"s\", obj.y)").lex()).parseExpression();
+        Ast.Expr other = new Parser(new Lexer("f(1 + 2 * y, \"s\", obj.y)").lex()).parseExpression();
+        Assertions.assertEquals(first.getStructuralHash(), second.getStructuralHash());
+        Assertions.assertEquals(first.hashCode(), second.hashCode());
+        Assertions.assertNotEquals(first.getStructuralHash(), other.getStructuralHash());
+        Assertions.assertNotEquals(new Ast.Expr.Literal('a').getStructuralHash(), new Ast.Expr.Literal(BigInteger.ONE).getStructuralHash());
+        Ast.Expr chain = new Ast.Expr.Literal(BigInteger.ZERO);
+        for (int i = 0; i < 100000; i++) {
+            chain = new Ast.Expr.Binary("+", chain, new Ast.Expr.Literal(BigInteger.ONE));
+        }
+        Assertions.assertNotEquals(0, chain.getStructuralHash());
+    }
+
+    @Test
+    void testInterner() throws ParseException {
+        AstInterner interner = new AstInterner();
+        Ast.Expr.Function first = (Ast.Expr.Function) interner.intern(new Parser(new Lexer("f(1 + 2, x + (1 + 2), x)").lex()).parseExpression());
+        Ast.Expr.Function second = (Ast.Expr.Function) interner.intern(new Parser(new Lexer("g(1 + 2, x)").lex()).parseExpression());
+        Assertions.assertEquals(new Parser(new Lexer("f(1 + 2, x + (1 + 2), x)").lex()).parseExpression(), first);
+        Ast.Expr constant = first.getArguments().get(0);
+        Assertions.assertSame(constant, second.getArguments().get(0));
+        Assertions.assertSame(constant, ((Ast.Expr.Group) ((Ast.Expr.Binary) first.getArguments().get(1)).getRight()).getExpression());
+        Assertions.assertNotSame(first.getArguments().get(2), second.getArguments().get(1));
+        Assertions.assertEquals(4, interner.size());
+    }
+
+    @Test
+    void testParseCache(@TempDir Path directory) throws IOException {
+        String first = "LET x: Integer = 1 + 2 * 3;\nDEF main(a: Decimal): String DO\n    IF a == 1.5 DO\n        RETURN \"\\n\";\n    END\nEND";
+        String second = "DEF f() DO\n    WHILE TRUE DO\n        LET c = 'c';\n        f(NIL, FALSE, 12345678901234567890).g = 10.0;\n    END\nEND";
+        Ast.Source expected = new Parser(new Lexer(first).lex()).parseSource();
+        try (ParseCache cache = ParseCache.open(directory, 1 << 20)) {
+            Assertions.assertEquals(expected, cache.parse(first));
+            Assertions.assertEquals(expected, cache.parse(first));
+            Assertions.assertEquals(new Parser(new Lexer(second).lex()).parseSource(), cache.parse(second));
+            Assertions.assertEquals(2, cache.getEntryCount());
+        }
+        try (ParseCache cache = ParseCache.open(directory, 1 << 20)) {
+            Assertions.assertEquals(2, cache.getEntryCount());
+            Assertions.assertEquals(expected, cache.parse(first));
+        }
+        //Evicts the least recently used entry, which is now the second source
+        long size;
+        try (ParseCache cache = ParseCache.open(directory, 1 << 20)) {
+            size = cache.getSize();
+        }
+        try (ParseCache cache = ParseCache.open(directory, size - 1)) {
+            Assertions.assertEquals(expected, cache.parse(first));
+            Assertions.assertEquals(1, cache.getEntryCount());
+        }
+        //Corrupt entries are treated as misses and replaced
+        try (Stream<Path> entries = Files.list(directory)) {
+            for (Path entry : entries.filter(p -> p.toString().endsWith(".ast")).collect(Collectors.toList())) {
+                Files.write(entry, new byte[] {1, 2, 3});
+            }
+        }
+        try (ParseCache cache = ParseCache.open(directory, 1 << 20)) {
+            Assertions.assertEquals(expected, cache.parse(first));
+            Assertions.assertEquals(1, cache.getEntryCount());
+        }
+        //Entries whose payload changed are treated as misses, even if they still decode
+        try (Stream<Path> entries = Files.list(directory)) {
+            for (Path entry : entries.filter(p -> p.toString().endsWith(".ast")).collect(Collectors.toList())) {
+                byte[] bytes = Files.readAllBytes(entry);
+                String contents = new String(bytes, StandardCharsets.ISO_8859_1);
+                bytes[contents.indexOf("main") + 1] = 'b';
+                Files.write(entry, bytes);
+            }
+        }
+        try (ParseCache cache = ParseCache.open(directory, 1 << 20)) {
+            Assertions.assertEquals(expected, cache.parse(first));
+        }
+        //Entries missing from the index are found again
+        Files.delete(directory.resolve("index"));
+        try (ParseCache cache = ParseCache.open(directory, 1 << 20)) {
+            Assertions.assertEquals(1, cache.getEntryCount());
+            Assertions.assertEquals(expected, cache.parse(first));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testExceptionIndex(String test, String input, int expected) {
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer(input).lex()).parseSource());
+        Assertions.assertEquals(expected, exception.getIndex());
+        Assertions.assertEquals(expected, Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer(input).lexBuffer()).parseSource()).getIndex());
+    }
+
+    private static Stream<Arguments> testExceptionIndex() {
+        return Stream.of(
+                Arguments.of("Invalid Token", "LET = 1;", 4),
+                Arguments.of("Missing Semicolon", "LET name: Integer = 1", 21),
+                Arguments.of("Second Line", "LET name: Integer = 1;\nDEF main(): Integer DO\n    x = ;\nEND", 54)
+        );
     }
 
     /**